@@ -7,15 +7,18 @@ import java.util.*;
  * When the heap fills up to the fixed size, the next element replaces
  * the oldest leaf node. The ideal capacity of the heap is 2^n - 1 for
  * some integer n, and the implementation may not function properly if
- * the capacity is not of this form.
+ * the capacity is not of this form. The capacity can be grown, but never shrunk.
+ * Elements are ordered by their natural order, unless the heap is given a comparator.
  *
  * @author Ari Weiland
  */
 public class FixedHeap<T extends Comparable<T>> implements Queue<T> {
 
-    private final Comparable<T>[] array;
+    private final Comparator<? super T> comparator;
+    private Comparable<T>[] array;
     private int size;
     private int overflowAddIndex = 0;
+    private long overflowCount = 0;
 
     /**
      * Creates a hea with capacity 1023.
@@ -30,6 +33,18 @@ public class FixedHeap<T extends Comparable<T>> implements Queue<T> {
      * @param capacity
      */
     public FixedHeap(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * Creates a heap with the specified capacity, ordered by the comparator,
+     * or by the natural order if it is null.
+     * Ideal capacity is of the form 2^n - 1.
+     * @param capacity
+     * @param comparator
+     */
+    public FixedHeap(int capacity, Comparator<? super T> comparator) {
+        this.comparator = comparator;
         this.array = new Comparable[capacity + 1]; // add in an extra index as a buffer
         this.size = 0;
     }
@@ -44,6 +59,7 @@ public class FixedHeap<T extends Comparable<T>> implements Queue<T> {
             // parentNode refers to the next node to be replaced
             parentNode = overflowAddIndex + size / 2;
             overflowAddIndex = (overflowAddIndex + 1) % ((size + 1) / 2);
+            overflowCount++;
         } else {
             // currNode refers to the next available index
             // parentNode refers to the parent of that node
@@ -52,7 +68,7 @@ public class FixedHeap<T extends Comparable<T>> implements Queue<T> {
             modified = true;
         }
         array[currNode] = t;
-        while (currNode > 0 && array[parentNode].compareTo(t) > 0) {
+        while (currNode > 0 && compare(array[parentNode], t) > 0) {
             array[currNode] = array[parentNode];
             array[parentNode] = t;
             currNode = parentNode;
@@ -62,6 +78,28 @@ public class FixedHeap<T extends Comparable<T>> implements Queue<T> {
         return modified;
     }
 
+    /**
+     * Returns the number of elements the heap can hold before it starts replacing leaf nodes
+     * @return
+     */
+    public int capacity() {
+        return array.length - 1;
+    }
+
+    /**
+     * Grows the heap to the specified capacity, keeping all of its elements.
+     * Does nothing if the heap is already at least that large.
+     * Ideal capacity is of the form 2^n - 1.
+     * @param capacity
+     */
+    public void grow(int capacity) {
+        if (capacity > capacity()) {
+            array = Arrays.copyOf(array, capacity + 1);
+            // the leaves have moved, so start replacing from the first leaf again
+            overflowAddIndex = 0;
+        }
+    }
+
     @Override
     public boolean remove(Object o) {
         throw new UnsupportedOperationException();
@@ -115,7 +153,7 @@ public class FixedHeap<T extends Comparable<T>> implements Queue<T> {
             array[0] = value;
             int currNode = 0;
             int bigChildNode = findBigChild(currNode);
-            while (currNode < ((size) / 2) && array[bigChildNode].compareTo(value) < 0) {
+            while (currNode < ((size) / 2) && compare(array[bigChildNode], value) < 0) {
                 array[currNode] = array[bigChildNode];
                 array[bigChildNode] = value;
                 currNode = bigChildNode;
@@ -148,6 +186,15 @@ public class FixedHeap<T extends Comparable<T>> implements Queue<T> {
         return size;
     }
 
+    /**
+     * Returns the number of elements that have been added while the heap was full,
+     * each of which replaced a leaf node.
+     * @return
+     */
+    public long getOverflowCount() {
+        return overflowCount;
+    }
+
     @Override
     public boolean isEmpty() {
         return size == 0;
@@ -165,6 +212,15 @@ public class FixedHeap<T extends Comparable<T>> implements Queue<T> {
         overflowAddIndex = 0;
     }
 
+    @SuppressWarnings("unchecked")
+    private int compare(Comparable<T> a, Comparable<T> b) {
+        if (comparator == null) {
+            return a.compareTo((T) b);
+        } else {
+            return comparator.compare((T) a, (T) b);
+        }
+    }
+
     private int findParentNode(int index) {
         return (index + 1) / 2 - 1;
     }
@@ -180,7 +236,7 @@ public class FixedHeap<T extends Comparable<T>> implements Queue<T> {
     private int findBigChild(int index) {
         int leftChildNode = findLeftChildNode(index);
         int rightChildNode = findRightChildNode(index);
-        if (rightChildNode < size && array[leftChildNode].compareTo((T) array[rightChildNode]) > 0) {
+        if (rightChildNode < size && compare(array[leftChildNode], array[rightChildNode]) > 0) {
             return rightChildNode;
         } else {
             return leftChildNode;
@@ -193,7 +249,7 @@ public class FixedHeap<T extends Comparable<T>> implements Queue<T> {
             int currNode = r;
             T value = (T) array[r];
             int bigChildNode = findBigChild(currNode);
-            while (currNode <= half && array[bigChildNode].compareTo(value) < 0) {
+            while (currNode <= half && compare(array[bigChildNode], value) < 0) {
                 array[currNode] = array[bigChildNode];
                 array[bigChildNode] = value;
                 currNode = bigChildNode;
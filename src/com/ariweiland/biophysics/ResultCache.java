@@ -0,0 +1,314 @@
+package com.ariweiland.biophysics;
+
+import com.ariweiland.biophysics.lattice.CheckedLattice;
+import com.ariweiland.biophysics.peptide.Polypeptide;
+import com.ariweiland.biophysics.peptide.Residue;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class is a persistent cache for the results of expensive computations on a polypeptide,
+ * namely the optimal foldings found by a Modeler and the densities of states found by a Sampler.
+ *
+ * Entries are keyed by the sequence, the dimension, the surface residue, the full interaction
+ * scheme and the kind of result. A sequence and its reverse have identical physics, so both are
+ * stored under whichever of the two comes first alphabetically, and foldings are reversed on the
+ * way in and out as needed.
+ *
+ * Entries are spread over a fixed number of shard files by the hash of their key, so a lookup only
+ * ever reads one small file, no matter how many entries there are. New entries are appended to
+ * their shard. Each shard keeps its entries in least recently used order, and once a shard grows
+ * past its share of the maximum size, its least recently used entries are evicted and the shard
+ * is rewritten. Only a limited number of shards are held in memory at once.
+ *
+ * @author Ari Weiland
+ */
+public class ResultCache {
+
+    public static final File DEFAULT_DIRECTORY = new File(System.getProperty("user.home"), ".biophysics-cache");
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private static final int SHARDS = 256;
+    private static final int LOADED_SHARDS = 32;
+
+    private final File directory;
+    private final long maxShardBytes;
+    private final Map<Integer, Shard> shards = new LinkedHashMap<Integer, Shard>(LOADED_SHARDS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Shard> eldest) {
+            return size() > LOADED_SHARDS;
+        }
+    };
+
+    /**
+     * Creates a cache in the default directory, with the default maximum size.
+     */
+    public ResultCache() {
+        this(DEFAULT_DIRECTORY, DEFAULT_MAX_BYTES);
+    }
+
+    public ResultCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxShardBytes = Math.max(1, maxBytes / SHARDS);
+    }
+
+    /**
+     * Returns the cached optimal folding of the polypeptide, or null if there is none.
+     * @param polypeptide
+     * @param dimension
+     * @param surface
+     * @return
+     */
+    public synchronized CheckedLattice getFolding(Polypeptide polypeptide, int dimension, Residue surface) {
+        String value = get(key(polypeptide, dimension, surface, "Folding"));
+        if (value == null) {
+            return null;
+        }
+        List<Point> points = new ArrayList<>();
+        for (String s : value.split(";")) {
+            String[] coordinates = s.split(",");
+            points.add(new Point(Integer.parseInt(coordinates[0]),
+                    Integer.parseInt(coordinates[1]), Integer.parseInt(coordinates[2])));
+        }
+        if (isReversed(polypeptide)) {
+            Collections.reverse(points);
+        }
+        CheckedLattice lattice = new CheckedLattice(dimension, polypeptide.size(), surface);
+        for (int i=0; i<points.size(); i++) {
+            lattice.put(points.get(i), polypeptide.get(i));
+        }
+        return lattice;
+    }
+
+    /**
+     * Caches the optimal folding of the polypeptide. The lattice must contain every peptide.
+     * @param polypeptide
+     * @param dimension
+     * @param surface
+     * @param lattice
+     */
+    public synchronized void putFolding(Polypeptide polypeptide, int dimension, Residue surface, CheckedLattice lattice) {
+        if (lattice.size() != polypeptide.size()) {
+            throw new IllegalArgumentException("Only complete foldings can be cached");
+        }
+        Point[] points = new Point[lattice.size()];
+        for (Point point : lattice.points()) {
+            points[lattice.get(point).index] = point;
+        }
+        List<Point> ordered = Arrays.asList(points);
+        if (isReversed(polypeptide)) {
+            Collections.reverse(ordered);
+        }
+        StringBuilder value = new StringBuilder();
+        for (Point point : ordered) {
+            if (value.length() > 0) {
+                value.append(";");
+            }
+            value.append(point.x).append(",").append(point.y).append(",").append(point.z);
+        }
+        put(key(polypeptide, dimension, surface, "Folding"), value.toString());
+    }
+
+    /**
+     * Returns the cached density of states of the polypeptide, as computed by the
+     * sampler of the specified kind, or null if there is none.
+     * @param kind
+     * @param polypeptide
+     * @param dimension
+     * @param surface
+     * @return
+     */
+    public synchronized Map<Double, Double> getDensity(String kind, Polypeptide polypeptide, int dimension, Residue surface) {
+        String value = get(key(polypeptide, dimension, surface, kind));
+        if (value == null) {
+            return null;
+        }
+        Map<Double, Double> density = new HashMap<>();
+        for (String s : value.split(";")) {
+            String[] parts = s.split(":");
+            density.put(Double.valueOf(parts[0]), Double.valueOf(parts[1]));
+        }
+        return density;
+    }
+
+    /**
+     * Caches the density of states of the polypeptide, as computed by the sampler of the specified kind.
+     * @param kind
+     * @param polypeptide
+     * @param dimension
+     * @param surface
+     * @param density
+     */
+    public synchronized void putDensity(String kind, Polypeptide polypeptide, int dimension, Residue surface,
+                                        Map<Double, Double> density) {
+        StringBuilder value = new StringBuilder();
+        for (Map.Entry<Double, Double> e : density.entrySet()) {
+            if (value.length() > 0) {
+                value.append(";");
+            }
+            value.append(e.getKey()).append(":").append(e.getValue());
+        }
+        put(key(polypeptide, dimension, surface, kind), value.toString());
+    }
+
+    private static String sequence(Polypeptide polypeptide, boolean reverse) {
+        int size = polypeptide.size();
+        StringBuilder sb = new StringBuilder(size);
+        for (int i=0; i<size; i++) {
+            sb.append(polypeptide.get(reverse ? size - 1 - i : i).residue.toString().charAt(1));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns true if the polypeptide is stored under its reverse
+     * @param polypeptide
+     * @return
+     */
+    private static boolean isReversed(Polypeptide polypeptide) {
+        return sequence(polypeptide, true).compareTo(sequence(polypeptide, false)) < 0;
+    }
+
+    private static String key(Polypeptide polypeptide, int dimension, Residue surface, String kind) {
+        return sequence(polypeptide, isReversed(polypeptide)) + "|" + dimension + "D|"
+                + (surface == null ? "none" : surface.toString()) + "|"
+                + Arrays.toString(Residue.getInteractionScheme()) + "|" + kind;
+    }
+
+    private String get(String key) {
+        return getShard(key).entries.get(key);
+    }
+
+    private void put(String key, String value) {
+        Shard shard = getShard(key);
+        String old = shard.entries.put(key, value);
+        if (old != null) {
+            shard.bytes -= key.length() + old.length() + 2;
+        }
+        shard.bytes += key.length() + value.length() + 2;
+        boolean evicted = false;
+        Iterator<Map.Entry<String, String>> iterator = shard.entries.entrySet().iterator();
+        while (shard.bytes > maxShardBytes && shard.entries.size() > 1) {
+            Map.Entry<String, String> eldest = iterator.next();
+            shard.bytes -= eldest.getKey().length() + eldest.getValue().length() + 2;
+            iterator.remove();
+            evicted = true;
+        }
+        // appending is cheap, but leaves replaced entries behind,
+        // so rewrite the shard when it evicts or gets too stale
+        if (evicted || shard.fileBytes > 2 * shard.bytes) {
+            shard.write();
+        } else {
+            shard.append(key, value);
+        }
+    }
+
+    private Shard getShard(String key) {
+        // keys are mostly the same, so spread the hash code before picking a shard
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        int index = (h & 0x7fffffff) % SHARDS;
+        Shard shard = shards.get(index);
+        if (shard == null) {
+            shard = new Shard(new File(directory, String.format("shard-%02x.txt", index)));
+            shards.put(index, shard);
+        }
+        return shard;
+    }
+
+    /**
+     * One shard file, held in memory in least recently used order.
+     */
+    private static class Shard {
+
+        private final File file;
+        private final LinkedHashMap<String, String> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long bytes = 0;
+        private long fileBytes = 0;
+
+        private Shard(File file) {
+            this.file = file;
+            if (!file.exists()) {
+                return;
+            }
+            BufferedReader br = null;
+            try {
+                br = new BufferedReader(new FileReader(file));
+                String line = br.readLine();
+                while (line != null) {
+                    int tab = line.indexOf('\t');
+                    if (tab > 0) {
+                        // later lines replace earlier ones with the same key
+                        String old = entries.put(line.substring(0, tab), line.substring(tab + 1));
+                        if (old != null) {
+                            bytes -= tab + old.length() + 2;
+                        }
+                        bytes += line.length() + 1;
+                    }
+                    fileBytes += line.length() + 1;
+                    line = br.readLine();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                if (br != null) {
+                    try {
+                        br.close();
+                    } catch (IOException ignored) {}
+                }
+            }
+        }
+
+        /**
+         * Rewrites the shard file with only its live entries, least recently used first. It is written to
+         * a temporary file first, so a crash never leaves a half-written shard behind.
+         */
+        private void write() {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+            File temp = new File(file.getPath() + ".tmp");
+            PrintWriter pw = null;
+            try {
+                pw = new PrintWriter(new FileWriter(temp));
+                for (Map.Entry<String, String> e : entries.entrySet()) {
+                    pw.println(e.getKey() + "\t" + e.getValue());
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                if (pw != null) {
+                    pw.close();
+                }
+            }
+            if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+                throw new RuntimeException("Could not write " + file);
+            }
+            fileBytes = bytes;
+        }
+
+        /**
+         * Appends one entry to the end of the shard file.
+         * @param key
+         * @param value
+         */
+        private void append(String key, String value) {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+            PrintWriter pw = null;
+            try {
+                pw = new PrintWriter(new FileWriter(file, true));
+                pw.println(key + "\t" + value);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                if (pw != null) {
+                    pw.close();
+                }
+            }
+            fileBytes += key.length() + value.length() + 2;
+        }
+    }
+}
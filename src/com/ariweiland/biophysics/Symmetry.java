@@ -0,0 +1,71 @@
+package com.ariweiland.biophysics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class represents one of the symmetries of a square or cubic lattice that keep
+ * the origin in place, namely a permutation of the axes combined with a reflection
+ * of some of them. A 2D lattice has 8 such symmetries and a 3D lattice has 48.
+ * @author Ari Weiland
+ */
+public class Symmetry {
+
+    private static final List<Symmetry> symmetries2D = new ArrayList<>();
+    private static final List<Symmetry> symmetries3D = new ArrayList<>();
+
+    static {
+        int[][] permutations = {{0, 1, 2}, {1, 0, 2}, {0, 2, 1}, {1, 2, 0}, {2, 0, 1}, {2, 1, 0}};
+        for (int[] axes : permutations) {
+            for (int signs = 0; signs < 8; signs++) {
+                Symmetry s = new Symmetry(axes, 1 - 2 * (signs & 1), 1 - (signs & 2), 1 - ((signs & 4) >> 1));
+                symmetries3D.add(s);
+                // 2D symmetries leave the z-axis alone
+                if (axes[2] == 2 && s.zSign == 1) {
+                    symmetries2D.add(s);
+                }
+            }
+        }
+    }
+
+    private final int[] axes;
+    private final int xSign;
+    private final int ySign;
+    private final int zSign;
+
+    private Symmetry(int[] axes, int xSign, int ySign, int zSign) {
+        this.axes = axes;
+        this.xSign = xSign;
+        this.ySign = ySign;
+        this.zSign = zSign;
+    }
+
+    /**
+     * Returns every symmetry of a lattice of the specified dimension, starting with the identity.
+     * @param dimension
+     * @return
+     */
+    public static List<Symmetry> values(int dimension) {
+        return Collections.unmodifiableList(dimension == 2 ? symmetries2D : symmetries3D);
+    }
+
+    /**
+     * Returns true if this symmetry keeps the y-axis pointing the same way,
+     * which are the only symmetries that keep a surface below the lattice in place
+     * @return
+     */
+    public boolean keepsVertical() {
+        return axes[1] == 1 && ySign == 1;
+    }
+
+    /**
+     * Returns the image of the point under this symmetry
+     * @param point
+     * @return
+     */
+    public Point apply(Point point) {
+        int[] coordinates = {point.x, point.y, point.z};
+        return new Point(xSign * coordinates[axes[0]], ySign * coordinates[axes[1]], zSign * coordinates[axes[2]]);
+    }
+}
@@ -15,6 +15,9 @@ public class CheckedLattice extends Lattice {
 
     protected double energy = 0;
     private int surfaceSize = 0;
+    private int evenContactSurface = 0;
+    private int oddContactSurface = 0;
+    private long contentHash = 0;
     private int plusXBound = 0;
     private int minusXBound = 0;
     private int plusYBound = 0;
@@ -41,6 +44,9 @@ public class CheckedLattice extends Lattice {
     public CheckedLattice(CheckedLattice lattice) {
         super(lattice);
         this.surfaceSize = lattice.surfaceSize;
+        this.evenContactSurface = lattice.evenContactSurface;
+        this.oddContactSurface = lattice.oddContactSurface;
+        this.contentHash = lattice.contentHash;
         this.plusXBound  = lattice.plusXBound;
         this.minusXBound = lattice.minusXBound;
         this.plusYBound  = lattice.plusYBound;
@@ -88,10 +94,17 @@ public class CheckedLattice extends Lattice {
             Peptide adj = get(point.getAdjacent(d));
             if (adj == null) {
                 surfaceSize += 1;
+                if (peptide.minInteraction() < 0) {
+                    addContactSurface(peptide.index, 1);
+                }
             } else if (adj.index >= 0) { // this is for use with surface lattice, so that it properly handles surface-perimeter
                 surfaceSize -= 1;
+                if (adj.minInteraction() < 0) {
+                    addContactSurface(adj.index, -1);
+                }
             }
         }
+        contentHash += contentHash(point, peptide.residue);
         super.put(point, peptide);
     }
 
@@ -99,6 +112,9 @@ public class CheckedLattice extends Lattice {
     public void clear() {
         super.clear();
         surfaceSize = 0;
+        evenContactSurface = 0;
+        oddContactSurface = 0;
+        contentHash = 0;
         plusXBound  = 0;
         minusXBound = 0;
         plusYBound  = 0;
@@ -115,6 +131,79 @@ public class CheckedLattice extends Lattice {
         return surfaceSize;
     }
 
+    /**
+     * Returns the number of open faces next to peptides that have some favorable
+     * interaction and whose index has the specified parity (0 for even, 1 for odd).
+     * On square and cubic lattices, only peptides of opposite index parity can ever
+     * be adjacent, so this is a cap on the contacts either parity can still accept.
+     * @param parity
+     * @return
+     */
+    public int getContactSurface(int parity) {
+        return parity % 2 == 0 ? evenContactSurface : oddContactSurface;
+    }
+
+    private void addContactSurface(int index, int delta) {
+        if (index % 2 == 0) {
+            evenContactSurface += delta;
+        } else {
+            oddContactSurface += delta;
+        }
+    }
+
+    /**
+     * Returns a 64-bit hash of which residue occupies which point. It only depends on
+     * the contents of the lattice, not on the order the peptides were placed in, so
+     * two different walks that lay out the same residues the same way hash the same.
+     * @return
+     */
+    public long getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Returns the contribution of one occupied point to the content hash.
+     * The lattice hash is the sum of the contributions of its points.
+     * @param point
+     * @param residue
+     * @return
+     */
+    public static long contentHash(Point point, Residue residue) {
+        return mix(pointHash(point) ^ residue.toString().hashCode() * 0xD6E8FEB86659FD93L);
+    }
+
+    /**
+     * Returns a 64-bit hash of a point.
+     * @param point
+     * @return
+     */
+    public static long pointHash(Point point) {
+        return (point.x * 0x9E3779B97F4A7C15L) ^ (point.y * 0xC2B2AE3D27D4EB4FL) ^ (point.z * 0x165667B19E3779F9L);
+    }
+
+    /**
+     * A 64-bit finalizer that spreads every input bit over the whole output.
+     * @param h
+     * @return
+     */
+    public static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Returns true if every peptide in the lattice lies in the same xy-plane.
+     * This is always the case for 2D lattices.
+     * @return
+     */
+    public boolean isPlanar() {
+        return plusZBound == minusZBound;
+    }
+
     /**
      * Returns the perimeter of the smallest bounding box or surface area of
      * the smallest bounding cube that contains the peptides in the lattice
@@ -131,4 +220,34 @@ public class CheckedLattice extends Lattice {
         }
     }
 
+    /**
+     * Returns a lower bound on the bounding perimeter or surface area of any lattice of
+     * the specified size that this lattice can grow into. Its bounding box must contain
+     * the current one and have at least size points, and this returns the smallest
+     * perimeter or surface area of such a box.
+     * @param size
+     * @return
+     */
+    public int minBoundingPerimeter(int size) {
+        int xRange = plusXBound - minusXBound + 1;
+        int yRange = plusYBound - minusYBound + 1;
+        int best = Integer.MAX_VALUE;
+        if (getDimension() == 2) {
+            // widening the box past the point where it is this short only makes it bigger
+            for (int x = xRange; 2 * (x + yRange) < best; x++) {
+                int y = Math.max(yRange, (size + x - 1) / x);
+                best = Math.min(best, 2 * (x + y));
+            }
+        } else {
+            int zRange = plusZBound - minusZBound + 1;
+            for (int x = xRange; 2 * (x * yRange + x * zRange + yRange * zRange) < best; x++) {
+                for (int y = yRange; 2 * (x * y + x * zRange + y * zRange) < best; y++) {
+                    int z = Math.max(zRange, (size + x * y - 1) / (x * y));
+                    best = Math.min(best, 2 * (x * y + x * z + y * z));
+                }
+            }
+        }
+        return best;
+    }
+
 }
@@ -23,12 +23,28 @@ public class Folding implements Comparable<Folding> {
         this.energyBound = energyBound;
     }
 
+    /**
+     * Orders foldings by energy bound, then by surface size. Remaining ties are broken by
+     * index, contents and last point, so that the order does not depend on the order the
+     * foldings were made in, and equally good foldings always come out the same way.
+     * @param o
+     * @return
+     */
     @Override
     public int compareTo(Folding o) {
         int compare = Double.compare(energyBound, o.energyBound);
         if (compare == 0) {
             compare = Integer.compare(lattice.getSurfaceSize(), o.lattice.getSurfaceSize());
         }
+        if (compare == 0) {
+            compare = Integer.compare(o.index, index);
+        }
+        if (compare == 0) {
+            compare = Long.compare(lattice.getContentHash(), o.lattice.getContentHash());
+        }
+        if (compare == 0) {
+            compare = Long.compare(CheckedLattice.pointHash(lastPoint), CheckedLattice.pointHash(o.lastPoint));
+        }
         return compare;
     }
 
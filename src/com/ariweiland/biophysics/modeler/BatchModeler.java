@@ -0,0 +1,219 @@
+package com.ariweiland.biophysics.modeler;
+
+import com.ariweiland.biophysics.lattice.Folding;
+import com.ariweiland.biophysics.peptide.Polypeptide;
+import com.ariweiland.biophysics.peptide.Residue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * This class folds many polypeptides at once on one shared work-stealing pool, instead
+ * of giving every core to one polypeptide at a time like ParallelModeler.fold does.
+ *
+ * Each polypeptide is seeded on a single pool thread, and its seeds are then searched
+ * by one SeedSearch task per pool thread. Any idle thread can steal those tasks, so
+ * short polypeptides and seeding phases no longer leave cores idle while the rest of
+ * the batch waits. Every SeedSearch grows its heap from one FrontierBudget of heapBudget
+ * states, shared by the whole batch, and gives the capacity back when it finishes, so the
+ * batch stays within heapBudget states no matter how many polypeptides are queued.
+ *
+ * Every fold can be given its own timeout, and terminate cancels the whole batch. Either
+ * way, a fold that is cut short returns the best folding it found, flagged as not optimal.
+ *
+ * @author Ari Weiland
+ */
+public class BatchModeler {
+
+    private final int dimension;
+    private final Residue surface;
+    private final int parallelism;
+    private final FrontierBudget budget;
+    private final ForkJoinPool pool;
+    private final CancellationToken batchToken = new CancellationToken();
+
+    public BatchModeler(int dimension) {
+        this(dimension, null);
+    }
+
+    public BatchModeler(int dimension, Residue surface) {
+        this(dimension, surface, Runtime.getRuntime().availableProcessors(), Modeler.MAX_HEAP_SIZE);
+    }
+
+    public BatchModeler(int dimension, Residue surface, int parallelism, int heapBudget) {
+        this.dimension = dimension;
+        this.surface = surface;
+        this.parallelism = parallelism;
+        // a state's size depends on the chain length, so only the JVM heap usage limit applies
+        this.budget = new FrontierBudget(heapBudget, 0);
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Creates the modeler for one polypeptide. Every polypeptide gets its own
+     * modeler, because modelers cache things about the polypeptide they fold.
+     * @return
+     */
+    protected ParallelModeler createModeler() {
+        return ParallelModeler.create(dimension, surface);
+    }
+
+    /**
+     * Queues the polypeptide to be folded, and returns the future result.
+     * @param polypeptide
+     * @return
+     */
+    public Future<FoldResult> submit(Polypeptide polypeptide) {
+        return pool.submit(new FoldTask(polypeptide, batchToken));
+    }
+
+    /**
+     * Queues the polypeptide to be folded, and returns the future result. The fold
+     * gives up once the timeout has passed, counting from when it starts to run.
+     * @param polypeptide
+     * @param timeout
+     * @param unit
+     * @return
+     */
+    public Future<FoldResult> submit(Polypeptide polypeptide, long timeout, TimeUnit unit) {
+        return pool.submit(new FoldTask(polypeptide, timeout, unit));
+    }
+
+    /**
+     * Queues every polypeptide to be folded, and returns a completion
+     * service that hands back the results as they finish.
+     * @param polypeptides
+     * @return
+     */
+    public CompletionService<FoldResult> foldAll(Iterable<Polypeptide> polypeptides) {
+        CompletionService<FoldResult> completed = new ExecutorCompletionService<>(pool);
+        for (Polypeptide polypeptide : polypeptides) {
+            completed.submit(new FoldTask(polypeptide, batchToken));
+        }
+        return completed;
+    }
+
+    /**
+     * Stops every fold in the batch. Each of them returns the best folding it has found.
+     */
+    public void terminate() {
+        batchToken.cancel();
+    }
+
+    /**
+     * Shuts down the pool once all queued folds have finished.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private class FoldTask implements Callable<FoldResult> {
+
+        private final Polypeptide polypeptide;
+        private final CancellationToken token;
+        private final long timeout;
+        private final TimeUnit unit;
+
+        private FoldTask(Polypeptide polypeptide, CancellationToken token) {
+            this.polypeptide = polypeptide;
+            this.token = token;
+            this.timeout = 0;
+            this.unit = null;
+        }
+
+        private FoldTask(Polypeptide polypeptide, long timeout, TimeUnit unit) {
+            this.polypeptide = polypeptide;
+            this.token = null;
+            this.timeout = timeout;
+            this.unit = unit;
+        }
+
+        @Override
+        public FoldResult call() {
+            final CancellationToken token;
+            if (this.token == null) {
+                // the clock starts now, and the batch can still cancel this fold early
+                token = new CancellationToken(timeout, unit) {
+                    @Override
+                    public boolean isCancelled() {
+                        return super.isCancelled() || batchToken.isCancelled();
+                    }
+                };
+            } else {
+                token = this.token;
+            }
+            ParallelModeler modeler = createModeler();
+            PriorityBlockingQueue<Folding> initialHeap = modeler.initializeHeap(polypeptide);
+
+            // iterate a few times to make the initial heap bigger
+            Folding solution = modeler.seedHeap(polypeptide, token, initialHeap, null, Integer.MAX_VALUE);
+            if (solution != null) {
+                return new FoldResult(solution.lattice, true);
+            }
+            if (token.isCancelled()) {
+                List<Folding> partials = new ArrayList<>();
+                if (!initialHeap.isEmpty()) {
+                    partials.add(initialHeap.peek());
+                }
+                return modeler.getBestSoFar(polypeptide, null, partials);
+            }
+
+            SeedQueue seeds = new SeedQueue(initialHeap);
+            Incumbent incumbent = new Incumbent();
+            List<SearchTask> tasks = new ArrayList<>();
+            for (int i=0; i<Math.min(parallelism, seeds.size()); i++) {
+                tasks.add(new SearchTask(modeler, polypeptide, seeds, incumbent, token));
+            }
+            ForkJoinTask.invokeAll(tasks);
+            boolean complete = true;
+            List<Folding> partials = new ArrayList<>();
+            for (SearchTask task : tasks) {
+                complete &= task.complete;
+                if (task.bestPartial != null) {
+                    partials.add(task.bestPartial);
+                }
+            }
+            Folding best = incumbent.get();
+            if (complete && best != null) {
+                return new FoldResult(best.lattice, modeler.getMetrics().getHeapOverflows() == 0
+                        && modeler.getSearchStrategy().isAdmissible());
+            }
+            return modeler.getBestSoFar(polypeptide, best, partials);
+        }
+    }
+
+    private class SearchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Modeler modeler;
+        private final Polypeptide polypeptide;
+        private final SeedQueue seeds;
+        private final Incumbent incumbent;
+        private final CancellationToken token;
+        private boolean complete = false;
+        private Folding bestPartial;
+
+        private SearchTask(Modeler modeler, Polypeptide polypeptide, SeedQueue seeds,
+                           Incumbent incumbent, CancellationToken token) {
+            this.modeler = modeler;
+            this.polypeptide = polypeptide;
+            this.seeds = seeds;
+            this.incumbent = incumbent;
+            this.token = token;
+        }
+
+        @Override
+        protected void compute() {
+            SeedSearch search = new SeedSearch(modeler, polypeptide, seeds, incumbent, budget, token);
+            search.run();
+            complete = search.isComplete();
+            bestPartial = search.getBestPartial();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.ariweiland.biophysics.modeler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class tells the workers of a fold when to stop. It is cancelled either by calling
+ * cancel, from any thread, or by reaching its deadline, if it has one. Workers check it
+ * once per iteration, so they stop within an iteration of it being cancelled.
+ * @author Ari Weiland
+ */
+public class CancellationToken {
+
+    private final boolean hasDeadline;
+    private final long deadline;
+    private volatile boolean cancelled = false;
+
+    /**
+     * Creates a token with no deadline, which is only cancelled by calling cancel.
+     */
+    public CancellationToken() {
+        this.hasDeadline = false;
+        this.deadline = 0;
+    }
+
+    /**
+     * Creates a token that cancels itself once the timeout has passed.
+     * @param timeout
+     * @param unit
+     */
+    public CancellationToken(long timeout, TimeUnit unit) {
+        this.hasDeadline = true;
+        this.deadline = System.nanoTime() + unit.toNanos(timeout);
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Returns true if this token has been cancelled or has passed its deadline.
+     * @return
+     */
+    public boolean isCancelled() {
+        if (!cancelled && hasDeadline && System.nanoTime() - deadline >= 0) {
+            cancelled = true;
+        }
+        return cancelled;
+    }
+}
@@ -0,0 +1,394 @@
+package com.ariweiland.biophysics.modeler;
+
+import com.ariweiland.biophysics.lattice.Folding;
+import com.ariweiland.biophysics.peptide.Polypeptide;
+import com.ariweiland.biophysics.peptide.Residue;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class folds a polypeptide across several worker processes, instead of the threads
+ * of one JVM like ParallelModeler does. It seeds the fold itself, then hands the seeds out
+ * in order to ClusterWorkers that connect to it over localhost, one seed at a time.
+ *
+ * Whenever a worker finds a better folding, it is sent to every worker, so all of them
+ * prune against the best folding of the whole cluster. A worker that disconnects has its
+ * seeds put back in the queue, and a seed that has been out for longer than the slow seed
+ * timeout is also handed to the next idle worker, keeping whichever result comes back
+ * first. Workers can join at any time, even in the middle of a fold.
+ *
+ * A fold waits for workers to connect, so it never finishes without any.
+ *
+ * @author Ari Weiland
+ */
+public class ClusterCoordinator {
+
+    private static final long DEFAULT_SLOW_SEED_MILLIS = 60000;
+
+    private final int dimension;
+    private final Residue surface;
+    private final ServerSocket server;
+    private final List<Connection> connections = new ArrayList<>();
+    private volatile long slowSeedMillis = DEFAULT_SLOW_SEED_MILLIS;
+    private Job job = null;
+    private int jobCount = 0;
+
+    public ClusterCoordinator(int dimension, int port) throws IOException {
+        this(dimension, null, port);
+    }
+
+    /**
+     * Creates a coordinator listening on the specified localhost port, or on any free port if it is 0
+     * @param dimension
+     * @param surface
+     * @param port
+     * @throws IOException
+     */
+    public ClusterCoordinator(int dimension, Residue surface, int port) throws IOException {
+        this.dimension = dimension;
+        this.surface = surface;
+        this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Sets how long a seed can be out before it is handed to another worker as well
+     * @param timeout
+     * @param unit
+     */
+    public void setSlowSeedTimeout(long timeout, TimeUnit unit) {
+        this.slowSeedMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     * Creates the modeler that seeds the fold. It must match the modelers the workers create.
+     * @return
+     */
+    protected ParallelModeler createModeler() {
+        return ParallelModeler.create(dimension, surface);
+    }
+
+    /**
+     * Folds the polypeptide on the workers until every seed has been searched or the
+     * token is cancelled. Like ParallelModeler.fold, the result is only flagged as optimal
+     * if every seed was searched without dropping any states.
+     * @param polypeptide
+     * @param token
+     * @return
+     */
+    public FoldResult fold(Polypeptide polypeptide, CancellationToken token) {
+        ParallelModeler modeler = createModeler();
+        PriorityBlockingQueue<Folding> initialHeap = modeler.initializeHeap(polypeptide);
+
+        // iterate a few times to make the initial heap bigger
+        Folding solution = modeler.seedHeap(polypeptide, token, initialHeap, null, Integer.MAX_VALUE);
+        if (solution != null) {
+            return new FoldResult(solution.lattice, true);
+        }
+        List<Folding> seeds = new ArrayList<>();
+        initialHeap.drainTo(seeds);
+        Collections.sort(seeds);
+        System.out.println("Initial Heap Size: " + seeds.size());
+
+        Job job;
+        synchronized (this) {
+            job = new Job(++jobCount, polypeptide, seeds);
+            this.job = job;
+            for (Connection connection : new ArrayList<>(connections)) {
+                connection.send(ClusterProtocol.JOB + " " + job.id + " " + job.header);
+            }
+            try {
+                while (!token.isCancelled() && !job.isFinished()) {
+                    wait(100);
+                    assignIdle();
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                this.job = null;
+                for (Connection connection : new ArrayList<>(connections)) {
+                    connection.assigned.clear();
+                    connection.send(ClusterProtocol.END + " " + job.id);
+                }
+            }
+        }
+        if (job.isFinished() && job.best != null) {
+            return new FoldResult(job.best.lattice, job.optimal);
+        }
+        List<Folding> partials = new ArrayList<>();
+        if (!job.pending.isEmpty()) {
+            partials.add(job.seeds[job.pending.peek()]);
+        }
+        return modeler.getBestSoFar(polypeptide, job.best, partials);
+    }
+
+    public FoldResult fold(Polypeptide polypeptide, long timeout, TimeUnit unit) {
+        return fold(polypeptide, new CancellationToken(timeout, unit));
+    }
+
+    /**
+     * Stops accepting workers and closes every connection, which shuts the workers down
+     */
+    public void close() throws IOException {
+        server.close();
+        synchronized (this) {
+            for (Connection connection : new ArrayList<>(connections)) {
+                connection.close();
+            }
+        }
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                final Connection connection = new Connection(server.accept());
+                synchronized (this) {
+                    connections.add(connection);
+                    if (job != null) {
+                        connection.send(ClusterProtocol.JOB + " " + job.id + " " + job.header);
+                    }
+                }
+                Thread reader = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        read(connection);
+                    }
+                });
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                // the server socket was closed
+            }
+        }
+    }
+
+    private void read(Connection connection) {
+        try {
+            String line;
+            while ((line = connection.in.readLine()) != null) {
+                handle(connection, line.split(" "));
+            }
+        } catch (IOException e) {
+            // the worker went away, same as a clean disconnect
+        } finally {
+            disconnect(connection);
+        }
+    }
+
+    private synchronized void handle(Connection connection, String[] message) {
+        if (job == null || Integer.parseInt(message[1]) != job.id) {
+            return;
+        }
+        switch (message[0]) {
+            case ClusterProtocol.NEXT:
+                assign(connection);
+                break;
+            case ClusterProtocol.RESULT:
+                int seed = Integer.parseInt(message[2]);
+                connection.assigned.remove(seed);
+                List<Connection> holders = job.inFlight.remove(seed);
+                if (holders == null) {
+                    // another worker got to this seed first
+                    break;
+                }
+                job.started.remove(seed);
+                for (Connection holder : holders) {
+                    if (holder != connection) {
+                        holder.assigned.remove(seed);
+                        holder.send(ClusterProtocol.CANCEL + " " + job.id + " " + seed);
+                    }
+                }
+                if (!Boolean.parseBoolean(message[3])) {
+                    job.optimal = false;
+                }
+                if (!message[4].equals(ClusterProtocol.NONE)) {
+                    Folding folding = ClusterProtocol.decodeFolding(message[4], job.polypeptide, dimension, surface);
+                    if (job.best == null || folding.compareTo(job.best) < 0) {
+                        job.best = folding;
+                        System.out.println("New Best: " + folding.energyBound);
+                        for (Connection c : new ArrayList<>(connections)) {
+                            c.send(ClusterProtocol.BEST + " " + job.id + " " + message[4]);
+                        }
+                    }
+                }
+                notifyAll();
+                break;
+        }
+    }
+
+    private synchronized void disconnect(Connection connection) {
+        connection.close();
+        connections.remove(connection);
+        if (job != null) {
+            job.idle.remove(connection);
+            for (int seed : connection.assigned) {
+                List<Connection> holders = job.inFlight.get(seed);
+                if (holders != null) {
+                    holders.remove(connection);
+                    if (holders.isEmpty()) {
+                        job.inFlight.remove(seed);
+                        job.started.remove(seed);
+                        job.pending.add(seed);
+                    }
+                }
+            }
+            assignIdle();
+        }
+        connection.assigned.clear();
+        notifyAll();
+    }
+
+    /**
+     * Hands the connection the next seed worth searching. If there is none, it gets a copy
+     * of a seed that has been out too long instead, and otherwise it waits until there is.
+     * @param connection
+     */
+    private void assign(Connection connection) {
+        job.idle.remove(connection);
+        while (!job.pending.isEmpty()) {
+            int seed = job.pending.poll();
+            if (job.best == null || job.seeds[seed].compareTo(job.best) < 0) {
+                send(connection, seed);
+                return;
+            }
+        }
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Integer, Long> entry : job.started.entrySet()) {
+            List<Connection> holders = job.inFlight.get(entry.getKey());
+            if (now - entry.getValue() > slowSeedMillis && holders.size() == 1 && !holders.contains(connection)) {
+                System.out.println("Reassigning Slow Seed: " + entry.getKey());
+                send(connection, entry.getKey());
+                return;
+            }
+        }
+        job.idle.add(connection);
+    }
+
+    private void assignIdle() {
+        if (job != null) {
+            for (Connection connection : new ArrayList<>(job.idle)) {
+                assign(connection);
+            }
+        }
+    }
+
+    private void send(Connection connection, int seed) {
+        List<Connection> holders = job.inFlight.get(seed);
+        if (holders == null) {
+            holders = new ArrayList<>();
+            job.inFlight.put(seed, holders);
+            job.started.put(seed, System.currentTimeMillis());
+        }
+        holders.add(connection);
+        connection.assigned.add(seed);
+        connection.send(ClusterProtocol.SEED + " " + job.id + " " + seed + " "
+                + ClusterProtocol.encodeFolding(job.seeds[seed]));
+    }
+
+    private class Job {
+
+        private final int id;
+        private final Polypeptide polypeptide;
+        private final String header;
+        private final Folding[] seeds;
+        // seed indices, which are in order because the seeds are sorted
+        private final Queue<Integer> pending = new PriorityQueue<>();
+        private final Map<Integer, List<Connection>> inFlight = new HashMap<>();
+        private final Map<Integer, Long> started = new LinkedHashMap<>();
+        private final Set<Connection> idle = new LinkedHashSet<>();
+        private Folding best = null;
+        private boolean optimal = true;
+
+        private Job(int id, Polypeptide polypeptide, List<Folding> seeds) {
+            this.id = id;
+            this.polypeptide = polypeptide;
+            this.header = ClusterProtocol.encodeJob(dimension, surface, polypeptide);
+            this.seeds = seeds.toArray(new Folding[seeds.size()]);
+            for (int i=0; i<this.seeds.length; i++) {
+                pending.add(i);
+            }
+        }
+
+        private boolean isFinished() {
+            if (best != null) {
+                // nothing left in the queue can beat the best folding
+                if (!pending.isEmpty() && seeds[pending.peek()].compareTo(best) >= 0) {
+                    pending.clear();
+                }
+            }
+            return pending.isEmpty() && inFlight.isEmpty();
+        }
+    }
+
+    private static class Connection {
+
+        private final Socket socket;
+        private final BufferedReader in;
+        private final PrintWriter out;
+        private final Set<Integer> assigned = new HashSet<>();
+
+        private Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8")));
+        }
+
+        private synchronized void send(String message) {
+            out.println(message);
+            out.flush();
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    /**
+     * Listens for workers on the specified port and folds one polypeptide with them.
+     * Folds with the HP scheme, and a surface attracts every residue equally.
+     * Arguments: port dimension sequence [surface [surfaceAttraction]]
+     * @param args
+     */
+    public static void main(String[] args) throws IOException {
+        int port = Integer.parseInt(args[0]);
+        int dimension = Integer.parseInt(args[1]);
+        Polypeptide polypeptide = new Polypeptide(args[2]);
+        Residue surface = args.length > 3 ? Residue.get(args[3].charAt(0)) : null;
+        double attraction = args.length > 4 ? Double.parseDouble(args[4]) : 1;
+        // the workers get the scheme with the job, so it must be set before folding
+        Residue.setInteractionScheme(-1, 0, 0);
+        if (surface != null) {
+            Residue.setSurfaceInteractions(-attraction, -attraction);
+        }
+        ClusterCoordinator coordinator = new ClusterCoordinator(dimension, surface, port);
+        System.out.println("Listening on port " + coordinator.getPort());
+        long start = System.currentTimeMillis();
+        FoldResult result = coordinator.fold(polypeptide, new CancellationToken());
+        System.out.println("Elapsed Time: " + (System.currentTimeMillis() - start) / 1000.0 + " seconds");
+        System.out.println("Energy: " + result.lattice.getEnergy() + ", optimal: " + result.optimal);
+        result.lattice.visualize();
+        coordinator.close();
+    }
+}
@@ -0,0 +1,110 @@
+package com.ariweiland.biophysics.modeler;
+
+import com.ariweiland.biophysics.Point;
+import com.ariweiland.biophysics.lattice.CheckedLattice;
+import com.ariweiland.biophysics.lattice.Folding;
+import com.ariweiland.biophysics.peptide.Polypeptide;
+import com.ariweiland.biophysics.peptide.Residue;
+
+/**
+ * This class holds the wire format that ClusterCoordinator and ClusterWorker talk over.
+ * Every message is one line of space separated fields, starting with its type and the
+ * id of the job it belongs to:
+ *
+ *  - JOB job dimension surface scheme sequence: coordinator to worker, starts a fold
+ *  - NEXT job: worker to coordinator, asks for a seed
+ *  - SEED job seed folding: coordinator to worker, a seed to search
+ *  - RESULT job seed complete folding: worker to coordinator, the best folding the seed
+ *    led to, or - if it led to nothing better than the incumbent
+ *  - BEST job folding: coordinator to worker, a new incumbent to prune against
+ *  - CANCEL job seed: coordinator to worker, stop searching that seed
+ *  - END job: coordinator to worker, the fold is over
+ *
+ * A folding is written as its index, its energy bound and its points in order.
+ *
+ * @author Ari Weiland
+ */
+public class ClusterProtocol {
+
+    public static final String JOB = "JOB";
+    public static final String NEXT = "NEXT";
+    public static final String SEED = "SEED";
+    public static final String RESULT = "RESULT";
+    public static final String BEST = "BEST";
+    public static final String CANCEL = "CANCEL";
+    public static final String END = "END";
+    public static final String NONE = "-";
+
+    /**
+     * Returns the fields of a JOB message after the job id. Workers live in other JVMs,
+     * so the interaction scheme goes along with the polypeptide.
+     * @param dimension
+     * @param surface
+     * @param polypeptide
+     * @return
+     */
+    public static String encodeJob(int dimension, Residue surface, Polypeptide polypeptide) {
+        StringBuilder scheme = new StringBuilder();
+        for (double d : Residue.getInteractionScheme()) {
+            if (scheme.length() > 0) {
+                scheme.append(",");
+            }
+            scheme.append(d);
+        }
+        StringBuilder sequence = new StringBuilder();
+        for (int i=0; i<polypeptide.size(); i++) {
+            sequence.append(polypeptide.get(i).residue.toString().charAt(1));
+        }
+        return dimension + " " + (surface == null ? NONE : surface.toString().charAt(1)) + " " + scheme + " " + sequence;
+    }
+
+    /**
+     * Returns the surface residue of a JOB message, or null if it has none
+     * @param field
+     * @return
+     */
+    public static Residue decodeSurface(String field) {
+        return field.equals(NONE) ? null : Residue.get(field.charAt(0));
+    }
+
+    /**
+     * Sets the interaction scheme of this JVM to the one in a JOB message
+     * @param field
+     */
+    public static void applyScheme(String field) {
+        String[] values = field.split(",");
+        Residue.setInteractionScheme(Double.parseDouble(values[0]), Double.parseDouble(values[1]), Double.parseDouble(values[2]));
+        Residue.setSurfaceInteractions(Double.parseDouble(values[3]), Double.parseDouble(values[4]));
+    }
+
+    public static String encodeFolding(Folding folding) {
+        Point[] points = new Point[folding.index + 1];
+        for (Point point : folding.lattice.points()) {
+            points[folding.lattice.get(point).index] = point;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(folding.index).append("/").append(folding.energyBound).append("/");
+        for (int i=0; i<points.length; i++) {
+            if (i > 0) {
+                sb.append(";");
+            }
+            sb.append(points[i].x).append(",").append(points[i].y).append(",").append(points[i].z);
+        }
+        return sb.toString();
+    }
+
+    public static Folding decodeFolding(String field, Polypeptide polypeptide, int dimension, Residue surface) {
+        String[] parts = field.split("/");
+        int index = Integer.parseInt(parts[0]);
+        double bound = Double.parseDouble(parts[1]);
+        CheckedLattice lattice = new CheckedLattice(dimension, polypeptide.size(), surface);
+        Point last = null;
+        String[] points = parts[2].split(";");
+        for (int i=0; i<points.length; i++) {
+            String[] coordinates = points[i].split(",");
+            last = new Point(Integer.parseInt(coordinates[0]), Integer.parseInt(coordinates[1]), Integer.parseInt(coordinates[2]));
+            lattice.put(last, polypeptide.get(i));
+        }
+        return new Folding(lattice, last, index, bound);
+    }
+}
@@ -0,0 +1,190 @@
+package com.ariweiland.biophysics.modeler;
+
+import com.ariweiland.biophysics.lattice.Folding;
+import com.ariweiland.biophysics.peptide.Polypeptide;
+import com.ariweiland.biophysics.peptide.Residue;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.Collections;
+
+/**
+ * This class is one worker of a ClusterCoordinator. It holds one connection to the
+ * coordinator, and searches the seeds it is handed one at a time, the same way a thread
+ * of ParallelModeler does. The best folding the coordinator knows of is kept as the
+ * incumbent, so every seed is pruned against the best folding of the whole cluster.
+ *
+ * A worker process usually runs one of these per core, see main.
+ *
+ * @author Ari Weiland
+ */
+public class ClusterWorker implements Runnable {
+
+    private final String host;
+    private final int port;
+
+    private PrintWriter out;
+    private int job = -1;
+    private int dimension;
+    private Residue surface;
+    private Polypeptide polypeptide;
+    private ParallelModeler modeler;
+    private FrontierBudget budget;
+    private Incumbent incumbent;
+    private int seed = -1;
+    private CancellationToken token;
+
+    public ClusterWorker(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Works for the coordinator until it closes the connection
+     */
+    @Override
+    public void run() {
+        try {
+            Socket socket = new Socket(host, port);
+            try {
+                socket.setTcpNoDelay(true);
+                out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8")));
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                String line;
+                while ((line = in.readLine()) != null) {
+                    handle(line.split(" "));
+                }
+            } finally {
+                cancelSeed();
+                socket.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private synchronized void handle(String[] message) {
+        int id = Integer.parseInt(message[1]);
+        switch (message[0]) {
+            case ClusterProtocol.JOB:
+                cancelSeed();
+                job = id;
+                dimension = Integer.parseInt(message[2]);
+                surface = ClusterProtocol.decodeSurface(message[3]);
+                ClusterProtocol.applyScheme(message[4]);
+                polypeptide = new Polypeptide(message[5]);
+                modeler = ParallelModeler.create(dimension, surface);
+                budget = FrontierBudget.fromMemory(modeler.getUnfoldedLattice(polypeptide));
+                incumbent = new Incumbent();
+                send(ClusterProtocol.NEXT + " " + job);
+                break;
+            case ClusterProtocol.SEED:
+                if (id == job) {
+                    seed = Integer.parseInt(message[2]);
+                    token = new CancellationToken();
+                    Folding folding = ClusterProtocol.decodeFolding(message[3], polypeptide, dimension, surface);
+                    Thread thread = new Thread(new Search(job, seed, folding, token));
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+                break;
+            case ClusterProtocol.BEST:
+                if (id == job) {
+                    incumbent.offer(ClusterProtocol.decodeFolding(message[2], polypeptide, dimension, surface));
+                }
+                break;
+            case ClusterProtocol.CANCEL:
+                if (id == job && Integer.parseInt(message[2]) == seed) {
+                    cancelSeed();
+                }
+                break;
+            case ClusterProtocol.END:
+                if (id == job) {
+                    cancelSeed();
+                    job = -1;
+                    modeler = null;
+                    incumbent = null;
+                }
+                break;
+        }
+    }
+
+    private synchronized void cancelSeed() {
+        if (token != null) {
+            token.cancel();
+            token = null;
+        }
+        seed = -1;
+    }
+
+    private synchronized void finish(int job, int seed, boolean complete, String folding) {
+        send(ClusterProtocol.RESULT + " " + job + " " + seed + " " + complete + " " + folding);
+        if (job == this.job) {
+            if (seed == this.seed) {
+                this.seed = -1;
+                token = null;
+            }
+            send(ClusterProtocol.NEXT + " " + job);
+        }
+    }
+
+    private synchronized void send(String message) {
+        out.println(message);
+        out.flush();
+    }
+
+    private class Search implements Runnable {
+
+        private final int job;
+        private final int seed;
+        private final Folding folding;
+        private final CancellationToken token;
+        private final Polypeptide polypeptide;
+        private final ParallelModeler modeler;
+        private final FrontierBudget budget;
+        private final Incumbent incumbent;
+
+        private Search(int job, int seed, Folding folding, CancellationToken token) {
+            this.job = job;
+            this.seed = seed;
+            this.folding = folding;
+            this.token = token;
+            this.polypeptide = ClusterWorker.this.polypeptide;
+            this.modeler = ClusterWorker.this.modeler;
+            this.budget = ClusterWorker.this.budget;
+            this.incumbent = ClusterWorker.this.incumbent;
+        }
+
+        @Override
+        public void run() {
+            long overflows = modeler.getMetrics().getHeapOverflows();
+            Folding before = incumbent.get();
+            SeedSearch search = new SeedSearch(modeler, polypeptide, new SeedQueue(Collections.singletonList(folding)),
+                    incumbent, budget, token);
+            search.run();
+            boolean complete = search.isComplete() && modeler.getMetrics().getHeapOverflows() == overflows;
+            Folding best = incumbent.get();
+            finish(job, seed, complete, best == null || best == before
+                    ? ClusterProtocol.NONE : ClusterProtocol.encodeFolding(best));
+        }
+    }
+
+    /**
+     * Connects to a coordinator and works for it until it shuts down.
+     * Arguments: host port [threads]
+     * @param args
+     */
+    public static void main(String[] args) throws InterruptedException {
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        Thread[] workers = new Thread[threads];
+        for (int i=0; i<threads; i++) {
+            workers[i] = new Thread(new ClusterWorker(host, port));
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.ariweiland.biophysics.modeler;
+
+import com.ariweiland.biophysics.lattice.CheckedLattice;
+import com.ariweiland.biophysics.peptide.Polypeptide;
+import com.ariweiland.biophysics.peptide.Residue;
+
+/**
+ * This class computes the part of the lower energy bound that belongs to the residues
+ * that have not been placed yet. It is built once per polypeptide and dimension.
+ *
+ * Every residue gets a budget of its contact capacity times its minimum interaction.
+ * Interior residues can make (dim-1)*2 contacts, but the two chain ends have one extra
+ * free face and can make (dim-1)*2+1. On square and cubic lattices, contacts only form
+ * between residues whose indices have opposite parity and are at least 3 apart, so the
+ * minimum interaction of a residue only considers the residues it can actually touch.
+ *
+ * The budgets count every contact between two unplaced residues twice. The tightening
+ * term corrects for that by counting contacts as a matching between even and odd
+ * residues, capped by the open faces the lattice already has on either side.
+ *
+ * With a PatternDatabase, the tightening can also replace the budgets of one window of
+ * the unplaced residues with the optimal energy of that window folded on its own.
+ *
+ * @author Ari Weiland
+ */
+public class ContactBound {
+
+    private final Polypeptide polypeptide;
+    private final int schemeVersion;
+    private final double[] budgets;
+    private final double[] suffixBudgets;
+    private final int[] evenSuffixCapacity;
+    private final int[] oddSuffixCapacity;
+    private final double minContact;
+    private final PatternDatabase patterns;
+    private final int[] windowStarts;
+
+    public ContactBound(Polypeptide polypeptide, int dimension) {
+        this(polypeptide, dimension, null);
+    }
+
+    public ContactBound(Polypeptide polypeptide, int dimension, PatternDatabase patterns) {
+        this.polypeptide = polypeptide;
+        this.schemeVersion = Residue.getSchemeVersion();
+        this.patterns = patterns;
+        int size = polypeptide.size();
+        budgets = new double[size];
+        suffixBudgets = new double[size + 1];
+        evenSuffixCapacity = new int[size + 1];
+        oddSuffixCapacity = new int[size + 1];
+        Residue[] residues = new Residue[size];
+        for (int i=0; i<size; i++) {
+            residues[i] = polypeptide.get(i).residue;
+        }
+        double minContact = 0;
+        for (int i=size-1; i>=0; i--) {
+            double minInteraction = 0;
+            for (int j=i%2==0 ? 1 : 0; j<size; j+=2) {
+                if (Math.abs(i - j) >= 3) {
+                    minInteraction = Math.min(minInteraction, residues[i].interaction(residues[j]));
+                }
+            }
+            minContact = Math.min(minContact, minInteraction);
+            int capacity = (dimension - 1) * 2;
+            if (i == 0 || i == size - 1) {
+                capacity++;
+            }
+            budgets[i] = capacity * minInteraction;
+            suffixBudgets[i] = suffixBudgets[i + 1] + budgets[i];
+            evenSuffixCapacity[i] = evenSuffixCapacity[i + 1];
+            oddSuffixCapacity[i] = oddSuffixCapacity[i + 1];
+            if (minInteraction < 0) {
+                if (i % 2 == 0) {
+                    evenSuffixCapacity[i] += capacity;
+                } else {
+                    oddSuffixCapacity[i] += capacity;
+                }
+            }
+        }
+        this.minContact = minContact;
+
+        // for every first unplaced index, pick the window that gives the
+        // best bound when none of the placed residues have any open faces
+        windowStarts = new int[size];
+        if (patterns != null && minContact < 0) {
+            for (int i=1; i<size; i++) {
+                int last = Math.max(i, size - patterns.getWindowSize());
+                double best = Double.NEGATIVE_INFINITY;
+                for (int start=i; start<=last; start++) {
+                    double bound = getWindowBound(start, i, 0, 0);
+                    if (bound > best) {
+                        best = bound;
+                        windowStarts[i] = start;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if this bound was built for the polypeptide with the current
+     * interaction scheme
+     * @param polypeptide
+     * @return
+     */
+    public boolean isFor(Polypeptide polypeptide) {
+        return this.polypeptide == polypeptide && schemeVersion == Residue.getSchemeVersion();
+    }
+
+    public Polypeptide getPolypeptide() {
+        return polypeptide;
+    }
+
+    /**
+     * Returns the lowest energy the residue at the specified index could contribute
+     * through its contacts with other residues.
+     * @param index
+     * @return
+     */
+    public double getBudget(int index) {
+        return budgets[index];
+    }
+
+    /**
+     * Returns the sum of the budgets of every residue in the polypeptide.
+     * @return
+     */
+    public double getMinEnergy() {
+        return suffixBudgets[0];
+    }
+
+    /**
+     * Returns how much the bound of a folding whose residues up to and including index
+     * have been placed in the lattice can be raised above the sum of the budgets of the
+     * remaining residues. The result is never negative.
+     *
+     * Every new contact joins an even and an odd residue, at least one of which has not
+     * been placed. Each side can offer the capacity of its unplaced residues plus the
+     * open faces of its placed residues, so the number of new contacts is at most the
+     * smaller side, and no more than the capacity of all the unplaced residues.
+     *
+     * @param lattice
+     * @param index
+     * @return
+     */
+    public double getTightening(CheckedLattice lattice, int index) {
+        int next = index + 1;
+        if (next >= budgets.length || minContact == 0) {
+            return 0;
+        }
+        int evenCapacity = evenSuffixCapacity[next];
+        int oddCapacity = oddSuffixCapacity[next];
+        int contacts = Math.min(evenCapacity + oddCapacity, Math.min(
+                evenCapacity + lattice.getContactSurface(0),
+                oddCapacity + lattice.getContactSurface(1)));
+        double tightening = Math.max(0, minContact * contacts - suffixBudgets[next]);
+        if (patterns != null) {
+            tightening = Math.max(tightening, getWindowTightening(lattice, windowStarts[next], next));
+        }
+        return tightening;
+    }
+
+    /**
+     * Returns how much the bound of a folding is raised by using the optimal energy of
+     * the window starting at start, given the open faces of its placed residues.
+     * @param lattice
+     * @param start
+     * @param next
+     * @return
+     */
+    private double getWindowTightening(CheckedLattice lattice, int start, int next) {
+        return Math.max(0, getWindowBound(start, next, lattice.getContactSurface(0),
+                lattice.getContactSurface(1)) - suffixBudgets[next]);
+    }
+
+    /**
+     * Returns a lower bound on the energy of every contact that involves an unplaced
+     * residue, when the residues from next onward are unplaced and the window starting
+     * at start lies among them.
+     *
+     * The contacts within the window have an energy of at least the window's optimum, and
+     * at least minContact each. Every other contact is between an even and an odd residue,
+     * one from the window, the rest of the unplaced residues or the placed residues, and
+     * is not between two placed residues. The most of those there can be is a maximum flow
+     * between the even and odd groups, where each group offers its capacity (or its open
+     * faces, for placed residues) minus what the window's c internal contacts use up. The
+     * bound is the minimum over c of
+     *
+     *      max(optimum, minContact * c) + minContact * flow(c)
+     *
+     * @param start
+     * @param next
+     * @param placedEven
+     * @param placedOdd
+     * @return
+     */
+    private double getWindowBound(int start, int next, int placedEven, int placedOdd) {
+        int end = patterns.getWindowEnd(start);
+        int windowEven = evenSuffixCapacity[start] - evenSuffixCapacity[end];
+        int windowOdd = oddSuffixCapacity[start] - oddSuffixCapacity[end];
+        int restEven = evenSuffixCapacity[next] - windowEven;
+        int restOdd = oddSuffixCapacity[next] - windowOdd;
+        double optimum = patterns.getEnergy(start);
+        double bound = Double.POSITIVE_INFINITY;
+        for (int c=0; c<=Math.min(windowEven, windowOdd); c++) {
+            double internal = Math.max(optimum, minContact * c);
+            bound = Math.min(bound, internal + minContact * getMaxContacts(windowEven - c, restEven, placedEven,
+                    windowOdd - c, restOdd, placedOdd));
+            if (internal == optimum) {
+                // more internal contacts can only lower the flow from here on
+                break;
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * Returns the maximum number of contacts between the even groups (window, rest, placed)
+     * and the odd groups (window, rest, placed), where the window cannot contact itself and
+     * the placed residues cannot contact themselves. By Konig's theorem, this is the minimum
+     * over every subset S of the even groups of the capacity outside of S plus the capacity
+     * of the odd groups adjacent to S.
+     */
+    private static int getMaxContacts(int we, int re, int pe, int wo, int ro, int po) {
+        int flow = we + re + pe;
+        flow = Math.min(flow, re + pe + ro + po);
+        flow = Math.min(flow, we + pe + wo + ro + po);
+        flow = Math.min(flow, we + re + wo + ro);
+        flow = Math.min(flow, pe + wo + ro + po);
+        flow = Math.min(flow, re + wo + ro + po);
+        flow = Math.min(flow, we + wo + ro + po);
+        flow = Math.min(flow, wo + ro + po);
+        return flow;
+    }
+}
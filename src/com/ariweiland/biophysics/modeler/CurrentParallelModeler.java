@@ -7,6 +7,8 @@ import com.ariweiland.biophysics.lattice.CheckedLattice;
 import com.ariweiland.biophysics.peptide.Peptide;
 import com.ariweiland.biophysics.peptide.Polypeptide;
 
+import java.io.File;
+import java.util.Arrays;
 import java.util.Queue;
 import java.util.concurrent.PriorityBlockingQueue;
 
@@ -15,15 +17,94 @@ import java.util.concurrent.PriorityBlockingQueue;
  */
 public class CurrentParallelModeler extends ParallelModeler {
 
+    private volatile ContactBound contactBound;
+    private int patternWindowSize = 0;
+    private File patternCache;
+    private volatile boolean partialExpansion = false;
+
     public CurrentParallelModeler(int dimension) {
         super(dimension);
     }
 
+    /**
+     * Enables the pattern database heuristic, which folds every window of windowSize
+     * consecutive residues before the search begins and uses their optimal energies
+     * to tighten the bound. A window size of 0 disables it. If cacheDirectory is not
+     * null, window energies are cached there and reused across runs.
+     * @param windowSize
+     * @param cacheDirectory
+     */
+    public void setPatternDatabase(int windowSize, File cacheDirectory) {
+        this.patternWindowSize = windowSize;
+        this.patternCache = cacheDirectory;
+        this.contactBound = null;
+    }
+
+    /**
+     * Enables partial expansion. An expanded state only puts the children on the heap
+     * whose bounds are no higher than its own, and goes back on the heap itself with the
+     * lowest bound it held back. Most children have bounds well above the best folding and
+     * would never come off the heap, so this keeps them from ever being copied or stored,
+     * at the cost of working out the bounds of a state's children once more for each batch.
+     * The search still finds the same optimum.
+     * @param partialExpansion
+     */
+    public void setPartialExpansion(boolean partialExpansion) {
+        this.partialExpansion = partialExpansion;
+    }
+
+    /**
+     * Returns the contact bound for the polypeptide currently being folded,
+     * building a new one if the polypeptide or the interaction scheme has changed.
+     * @param polypeptide
+     * @return
+     */
+    protected ContactBound getContactBound(Polypeptide polypeptide) {
+        ContactBound bound = contactBound;
+        if (bound == null || !bound.isFor(polypeptide)) {
+            if (patternWindowSize > 0) {
+                bound = new ContactBound(polypeptide, getDimension(),
+                        new PatternDatabase(polypeptide, getDimension(), patternWindowSize, patternCache));
+            } else {
+                bound = new ContactBound(polypeptide, getDimension());
+            }
+            contactBound = bound;
+        }
+        return bound;
+    }
+
+    /**
+     * Returns how many walks with the first residue at the origin and the second at
+     * (1, 0, 0) a complete folding from this modeler stands for. The search only bends the
+     * chain up the first time it bends, and in 3D only leaves the xy-plane by moving up,
+     * so every other walk is a reflection of one that it does find.
+     * @param lattice
+     * @return
+     */
+    public int getMultiplicity(CheckedLattice lattice) {
+        boolean straight = true;
+        for (Point point : lattice.points()) {
+            straight &= point.y == 0 && point.z == 0;
+        }
+        if (straight) {
+            // a straight line is its own reflection
+            return 1;
+        } else if (getDimension() == 2) {
+            return 2;
+        } else if (lattice.isPlanar()) {
+            // the first bend could have gone any of four ways around the x-axis
+            return 4;
+        } else {
+            return 8;
+        }
+    }
+
     @Override
     protected PriorityBlockingQueue<Folding> initializeHeap(Polypeptide polypeptide) {
         PriorityBlockingQueue<Folding> initialHeap = new PriorityBlockingQueue<>(getSeedCount(polypeptide) * 4);
         int dim = getDimension();
         int size = polypeptide.size();
+        int surfaceBound = getSearchContext(polypeptide).getSurfaceBound();
         // initialize the lattices
         Peptide first = polypeptide.get(0);
         CheckedLattice line = new CheckedLattice(dim, size);
@@ -35,10 +116,11 @@ public class CurrentParallelModeler extends ParallelModeler {
 
             // fill the queue initially.  this removes symmetrical solutions
             // if size == 2, the for loop will be ignored and none of this will matter
-            double lowerBound = polypeptide.getMinEnergy(dim)
-                    - dim * first.minInteraction()
+            ContactBound contactBound = getContactBound(polypeptide);
+            double lowerBound = contactBound.getMinEnergy()
+                    - contactBound.getBudget(0)
                     + (dim + 1) * getFavorableWaterInteraction(first)
-                    - dim * second.minInteraction()
+                    - contactBound.getBudget(1)
                     + dim * getFavorableWaterInteraction(second);
             for (int i=2; i<size; i++) {
                 Peptide next = polypeptide.get(i);
@@ -46,17 +128,35 @@ public class CurrentParallelModeler extends ParallelModeler {
                 Point point = new Point(i - 1, 1, 0);
                 bend.put(point, next);
                 line.put(new Point(i, 0, 0), next);
-                lowerBound += (dim - 1) * 2 * getFavorableWaterInteraction(next) - (dim - 1) * 2 * next.minInteraction();
+                lowerBound += (dim - 1) * 2 * getFavorableWaterInteraction(next) - contactBound.getBudget(i);
                 if (i == size - 1) {
-                    lowerBound = bend.getEnergy();
+                    addSeed(initialHeap, new Folding(bend, point, i, bend.getEnergy()), size, surfaceBound);
+                } else {
+                    double bound = lowerBound + contactBound.getTightening(bend, i);
+                    addSeed(initialHeap, new Folding(bend, point, i, bound), size, surfaceBound);
                 }
-                initialHeap.add(new Folding(bend, point, i, lowerBound));
             }
         }
-        initialHeap.add(new Folding(line, new Point(size - 1, 0, 0), size - 1, line.getEnergy()));
+        addSeed(initialHeap, new Folding(line, new Point(size - 1, 0, 0), size - 1, line.getEnergy()), size, surfaceBound);
         return initialHeap;
     }
 
+    /**
+     * Puts the seed on the heap, unless the box it needs is already too big. Iterate only
+     * checks the box when it grows, so a seed that starts out too wide would never be pruned.
+     * @param initialHeap
+     * @param seed
+     * @param size
+     * @param surfaceBound
+     */
+    private void addSeed(PriorityBlockingQueue<Folding> initialHeap, Folding seed, int size, int surfaceBound) {
+        if (seed.lattice.minBoundingPerimeter(size) > surfaceBound) {
+            recordPerimeterPrune(seed);
+        } else {
+            initialHeap.add(seed);
+        }
+    }
+
     @Override
     public Folding iterate(Polypeptide polypeptide, Queue<Folding> queue) {
         int dim = getDimension();
@@ -64,41 +164,123 @@ public class CurrentParallelModeler extends ParallelModeler {
         Folding folding = queue.poll();
         int nextIndex = folding.index + 1;
         if (nextIndex < size) {
-            Peptide p = polypeptide.get(nextIndex);
-            for (Direction nextDir : Direction.values(dim)) {
+            if (folding instanceof PartialExpansion) {
+                expandRest(polypeptide, (PartialExpansion) folding, queue);
+                return null;
+            }
+            SearchContext context = getSearchContext(polypeptide);
+            int surfaceBound = context.getSurfaceBound();
+            Peptide p = context.getPeptide(nextIndex);
+            double water = context.getWaterInteraction(nextIndex);
+            FoldMetrics metrics = getMetrics();
+            metrics.expansions.increment();
+            ContactBound contactBound = getContactBound(polypeptide);
+            // the tightening is not incremental, so take it back off before adjusting the bound
+            double baseBound = folding.energyBound - contactBound.getTightening(folding.lattice, folding.index);
+            Direction[] directions = Direction.values(dim);
+            double[] childBounds = null;
+            double deferredBound = Double.POSITIVE_INFINITY;
+            if (partialExpansion) {
+                childBounds = new double[directions.length];
+                Arrays.fill(childBounds, Double.NaN);
+            }
+            for (int i=0; i<directions.length; i++) {
+                Direction nextDir = directions[i];
                 Point next = folding.lastPoint.getAdjacent(nextDir);
-                if (!folding.lattice.contains(next)) {
+                if (isSymmetricallyUnique(folding, nextDir) && !folding.lattice.contains(next)) {
                     CheckedLattice l = new CheckedLattice(folding.lattice);
                     l.put(next, p);
                     // though limiting the protein to the smallest possible rectangle is
                     // overly limiting, empirically it seems that limiting it to a rectangle
-                    // of perimeter 4 larger does not seem to restrict the solution at all
-                    if (l.boundingPerimeter() <= getSurfaceBound(polypeptide)) {
-                        // subtract a water interaction where the next residue will end up
-                        // note that if there is nowhere for the next residue, the foldings will be dropped on the next iteration
-                        double bound = folding.energyBound - (dim - 1) * 2 * p.minInteraction() - getFavorableWaterInteraction(p);
+                    // of perimeter 4 larger does not seem to restrict the solution at all.
+                    // prune as soon as the box the whole protein needs is too big, which
+                    // can only change when the new residue stretches the box
+                    boolean tooWide = l.boundingPerimeter() != folding.lattice.boundingPerimeter()
+                            && l.minBoundingPerimeter(size) > surfaceBound;
+                    if (tooWide && !isWidening()) {
+                        metrics.perimeterPrunes.increment();
+                    } else if (!canComplete(l, next, size - 1 - nextIndex, Integer.MAX_VALUE)) {
+                        metrics.deadEndPrunes.increment();
+                    } else {
+                        // subtract a water interaction where the next residue will end up.
+                        // canComplete has already checked that there is somewhere for it to go
+                        double bound = baseBound - contactBound.getBudget(nextIndex) - water;
                         if (nextIndex < size - 1) {
                             for (Direction d : Direction.values(dim)) {
                                 // the adjustments for the attached residue are already handled
                                 if (d != nextDir.getReverse()) {
                                     if (l.contains(next.getAdjacent(d))) {
-                                        Peptide adjacent = l.get(next.getAdjacent(d));
-                                        bound += p.interaction(adjacent) - getFavorableWaterInteraction(adjacent);
+                                        int adjacent = l.get(next.getAdjacent(d)).index;
+                                        bound += context.getInteraction(nextIndex, adjacent) - context.getWaterInteraction(adjacent);
                                     } else {
-                                        bound += getFavorableWaterInteraction(p);
+                                        bound += water;
                                     }
                                 }
                             }
+                            bound += contactBound.getTightening(l, nextIndex);
                         } else {
                             bound = l.getEnergy();
                         }
-                        queue.add(new Folding(l, next, nextIndex, bound));
+                        Folding child = new Folding(l, next, nextIndex, bound);
+                        if (tooWide) {
+                            // a wider bound may need it later
+                            metrics.perimeterPrunes.increment();
+                            recordPerimeterPrune(child);
+                        } else if (childBounds != null && bound > folding.energyBound) {
+                            childBounds[i] = bound;
+                            deferredBound = Math.min(deferredBound, bound);
+                        } else {
+                            metrics.children.increment();
+                            if (isNewState(child)) {
+                                queue.add(child);
+                            }
+                        }
                     }
                 }
             }
+            if (deferredBound < Double.POSITIVE_INFINITY) {
+                metrics.childrenDeferred.increment();
+                queue.add(new PartialExpansion(folding, deferredBound, folding.energyBound, childBounds));
+            }
             return null;
         } else {
             return folding;
         }
     }
+
+    /**
+     * Puts the next batch of children of a partially expanded state on the heap, which are
+     * the ones whose bounds are above the last batch but no higher than the state's bound.
+     * Their bounds were already worked out, so only these children are built. If it still
+     * holds back any children, the state goes back on the heap with the lowest of their bounds.
+     * @param polypeptide
+     * @param folding
+     * @param queue
+     */
+    private void expandRest(Polypeptide polypeptide, PartialExpansion folding, Queue<Folding> queue) {
+        int nextIndex = folding.index + 1;
+        Peptide p = getSearchContext(polypeptide).getPeptide(nextIndex);
+        FoldMetrics metrics = getMetrics();
+        Direction[] directions = Direction.values(getDimension());
+        double deferredBound = Double.POSITIVE_INFINITY;
+        for (int i=0; i<directions.length; i++) {
+            double bound = folding.childBounds[i];
+            if (bound > folding.expandedBound && bound <= folding.energyBound) {
+                Point next = folding.lastPoint.getAdjacent(directions[i]);
+                CheckedLattice l = new CheckedLattice(folding.lattice);
+                l.put(next, p);
+                Folding child = new Folding(l, next, nextIndex, bound);
+                metrics.children.increment();
+                if (isNewState(child)) {
+                    queue.add(child);
+                }
+            } else if (bound > folding.energyBound) {
+                deferredBound = Math.min(deferredBound, bound);
+            }
+        }
+        if (deferredBound < Double.POSITIVE_INFINITY) {
+            metrics.childrenDeferred.increment();
+            queue.add(new PartialExpansion(folding, deferredBound, folding.energyBound, folding.childBounds));
+        }
+    }
 }
@@ -70,35 +70,51 @@ public class CurrentSurfaceModeler extends SurfaceModeler {
         Folding folding = queue.poll();
         int nextIndex = folding.index + 1;
         if (nextIndex < size) {
-            Peptide p = polypeptide.get(nextIndex);
+            SearchContext context = getSearchContext(polypeptide);
+            int maxY = context.getMaxY();
+            Peptide p = context.getPeptide(nextIndex);
+            double water = context.getWaterInteraction(nextIndex);
+            FoldMetrics metrics = getMetrics();
+            metrics.expansions.increment();
             // try to add the peptide in every direction
             for (Direction nextDir : Direction.values(dim)) {
                 Point next = folding.lastPoint.getAdjacent(nextDir);
-                if (!folding.lattice.contains(next) && next.y < getMaxY(polypeptide)) {
+                if (isSymmetricallyUnique(folding, nextDir) && !folding.lattice.contains(next) && next.y < maxY) {
                     CheckedLattice l = new CheckedLattice(folding.lattice);
                     l.put(next, p);
+                    if (!canComplete(l, next, size - 1 - nextIndex, maxY)) {
+                        metrics.deadEndPrunes.increment();
+                        continue;
+                    }
                     // set the bound from the previous bound, minus the min interactions for this peptide,
                     // minus one favorable water interaction which
-                    double bound = folding.energyBound - (dim - 1) * 2 * p.minInteraction() - getFavorableWaterInteraction(p);
+                    double bound = folding.energyBound - context.getMinAdjust(nextIndex) - water;
                     if (nextIndex < size - 1) {
                         for (Direction d : Direction.values(dim)) {
                             // the adjustments for the attached residue are already handled
                             if (d != nextDir.getReverse()) {
-                                if (l.contains(next.getAdjacent(d))) {
-                                    Peptide adjacent = l.get(next.getAdjacent(d));
-                                    bound += p.interaction(adjacent) - getFavorableWaterInteraction(adjacent);
+                                Point adjacent = next.getAdjacent(d);
+                                if (adjacent.y == 0) {
+                                    bound += context.getSurfaceInteraction(nextIndex) - context.getSurfaceWaterInteraction();
+                                } else if (l.contains(adjacent)) {
+                                    int index = l.get(adjacent).index;
+                                    bound += context.getInteraction(nextIndex, index) - context.getWaterInteraction(index);
                                 } else {
-                                    bound += getFavorableWaterInteraction(p);
+                                    bound += water;
                                 }
                             }
                         }
                         if (next.y > 1) {
-                            bound -= getAdjustedSurfaceMinInteraction();
+                            bound -= context.getAdjustedSurfaceMinInteraction();
                         }
                     } else {
                         bound = l.getEnergy();
                     }
-                    queue.add(new Folding(l, next, nextIndex, bound));
+                    Folding child = new Folding(l, next, nextIndex, bound);
+                    metrics.children.increment();
+                    if (isNewState(child)) {
+                        queue.add(child);
+                    }
                 }
             }
             return null;
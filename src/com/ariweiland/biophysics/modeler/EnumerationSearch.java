@@ -0,0 +1,67 @@
+package com.ariweiland.biophysics.modeler;
+
+import com.ariweiland.biophysics.lattice.Folding;
+import com.ariweiland.biophysics.peptide.Polypeptide;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Queue;
+
+/**
+ * This runnable is one worker of ParallelModeler.enumerate. It searches its seeds depth
+ * first instead of best first, because it has to visit every folding whose bound is within
+ * the collector's threshold anyway, and a stack stays small while a heap of all of them
+ * would not. Every complete folding it reaches goes to the collector.
+ *
+ * The seeds come off the queue from the best bound to the worst, so it stops as soon
+ * as one is over the threshold.
+ * @author Ari Weiland
+ */
+class EnumerationSearch implements Runnable {
+
+    private final Modeler modeler;
+    private final Polypeptide polypeptide;
+    private final Queue<Folding> seeds;
+    private final FoldingCollector collector;
+    private final CancellationToken token;
+
+    private int count = 0;
+
+    EnumerationSearch(Modeler modeler, Polypeptide polypeptide, Queue<Folding> seeds,
+                      FoldingCollector collector, CancellationToken token) {
+        this.modeler = modeler;
+        this.polypeptide = polypeptide;
+        this.seeds = seeds;
+        this.collector = collector;
+        this.token = token;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    @Override
+    public void run() {
+        Deque<Folding> stack = new ArrayDeque<>();
+        // iterate polls the top of the stack and pushes the children on top
+        Queue<Folding> queue = Collections.asLifoQueue(stack);
+        Folding seed = seeds.poll();
+        while (!token.isCancelled() && seed != null && seed.energyBound <= collector.getThreshold()) {
+            modeler.getMetrics().seedsTaken.increment();
+            stack.push(seed);
+            while (!token.isCancelled() && !stack.isEmpty()) {
+                if (stack.peek().energyBound > collector.getThreshold()) {
+                    stack.pop();
+                } else {
+                    Folding solution = modeler.iterate(polypeptide, queue);
+                    if (solution != null) {
+                        collector.offer(solution);
+                    }
+                    count++;
+                }
+            }
+            seed = seeds.poll();
+        }
+    }
+}
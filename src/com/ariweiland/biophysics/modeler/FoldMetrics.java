@@ -0,0 +1,467 @@
+package com.ariweiland.biophysics.modeler;
+
+import javax.management.*;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class collects what a Modeler is doing while it folds: how many states it expands,
+ * what happens to the children it generates, how full the heaps get, how fast the seeds
+ * drain, how the best solution improves and how long threads sit idle.
+ *
+ * The counters are striped over several padded slots, so threads rarely write to the same
+ * cache line, and are only summed when they are read. Histograms count values in powers of
+ * two. Every fold resets the metrics.
+ *
+ * The metrics can be registered as an MXBean so they show up in JMX consoles, and can be
+ * appended to a file at a fixed rate.
+ *
+ * @author Ari Weiland
+ */
+public class FoldMetrics implements FoldMetricsMXBean {
+
+    public final Counter expansions = new Counter();
+    public final Counter children = new Counter();
+    public final Counter perimeterPrunes = new Counter();
+    public final Counter deadEndPrunes = new Counter();
+    public final Counter childrenDeferred = new Counter();
+    public final Counter transpositionRejects = new Counter();
+    public final Counter solutions = new Counter();
+    public final Counter seedsTaken = new Counter();
+    public final Counter seedsSkipped = new Counter();
+    public final Counter heapOverflows = new Counter();
+    public final Counter seedsSplit = new Counter();
+    public final Counter warmStartMisses = new Counter();
+    public final Counter idleNanos = new Counter();
+    public final Histogram iterateNanos = new Histogram();
+    public final Histogram heapSizes = new Histogram();
+
+    private final List<String> incumbents = new CopyOnWriteArrayList<>();
+    private volatile double incumbent = Double.POSITIVE_INFINITY;
+    private volatile long expansionsToBest = 0;
+    private volatile long startTime = System.nanoTime();
+    private volatile Queue<?> seedQueue;
+    private volatile long frontierBudget = 0;
+    private volatile long stateBytes = 0;
+    private volatile int perimeterSlack = 0;
+    private volatile PerimeterFrontier perimeterFrontier;
+    private volatile long estimatedWork = 0;
+    private volatile long largestSeedWork = 0;
+
+    private ObjectName name;
+    private ScheduledExecutorService snapshots;
+
+    /**
+     * Resets every metric and restarts the clock.
+     */
+    @Override
+    public void reset() {
+        for (Counter c : new Counter[]{expansions, children, perimeterPrunes, deadEndPrunes, childrenDeferred,
+                transpositionRejects, solutions, seedsTaken, seedsSkipped, heapOverflows, seedsSplit,
+                warmStartMisses, idleNanos}) {
+            c.reset();
+        }
+        iterateNanos.reset();
+        heapSizes.reset();
+        incumbents.clear();
+        incumbent = Double.POSITIVE_INFINITY;
+        expansionsToBest = 0;
+        seedQueue = null;
+        frontierBudget = 0;
+        stateBytes = 0;
+        perimeterSlack = 0;
+        perimeterFrontier = null;
+        estimatedWork = 0;
+        largestSeedWork = 0;
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Sets the queue of seeds whose size is reported as the remaining seeds.
+     * @param seedQueue
+     */
+    public void setSeedQueue(Queue<?> seedQueue) {
+        this.seedQueue = seedQueue;
+    }
+
+    /**
+     * Sets the number of heap states the searches could share when they started, and how
+     * many bytes each of them was measured to take, or 0 if the budget was not measured.
+     * @param states
+     * @param stateBytes
+     */
+    public void setFrontierBudget(long states, long stateBytes) {
+        this.frontierBudget = states;
+        this.stateBytes = stateBytes;
+    }
+
+    /**
+     * Sets the slack in the perimeter bound, and the frontier whose lowest bound is reported
+     * as the dropped bound, or null if the fold does not keep the foldings it drops.
+     * @param slack
+     * @param frontier
+     */
+    public void setPerimeter(int slack, PerimeterFrontier frontier) {
+        this.perimeterSlack = slack;
+        this.perimeterFrontier = frontier;
+    }
+
+    /**
+     * Sets how many states the seeds were estimated to expand in total, and under the largest seed.
+     * @param total
+     * @param largest
+     */
+    public void setEstimatedWork(long total, long largest) {
+        this.estimatedWork = total;
+        this.largestSeedWork = largest;
+    }
+
+    /**
+     * Records a solution, and adds it to the incumbent history if it is the best so far.
+     * @param energy
+     */
+    public synchronized void recordSolution(double energy) {
+        solutions.increment();
+        if (energy < incumbent) {
+            incumbent = energy;
+            expansionsToBest = expansions.sum();
+            incumbents.add(getElapsedMillis() + "ms:" + energy);
+        }
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        return (System.nanoTime() - startTime) / 1000000;
+    }
+
+    @Override
+    public long getStatesExpanded() {
+        return expansions.sum();
+    }
+
+    @Override
+    public double getExpansionRate() {
+        return getStatesExpanded() * 1000.0 / Math.max(1, getElapsedMillis());
+    }
+
+    @Override
+    public long getChildrenGenerated() {
+        return children.sum();
+    }
+
+    @Override
+    public long getPerimeterPrunes() {
+        return perimeterPrunes.sum();
+    }
+
+    @Override
+    public long getDeadEndPrunes() {
+        return deadEndPrunes.sum();
+    }
+
+    @Override
+    public long getChildrenDeferred() {
+        return childrenDeferred.sum();
+    }
+
+    @Override
+    public long getTranspositionRejects() {
+        return transpositionRejects.sum();
+    }
+
+    @Override
+    public long getSolutionsFound() {
+        return solutions.sum();
+    }
+
+    @Override
+    public long getExpansionsToBest() {
+        return expansionsToBest;
+    }
+
+    @Override
+    public String[] getIncumbentHistory() {
+        return incumbents.toArray(new String[incumbents.size()]);
+    }
+
+    @Override
+    public long getSeedsTaken() {
+        return seedsTaken.sum();
+    }
+
+    @Override
+    public long getSeedsSkipped() {
+        return seedsSkipped.sum();
+    }
+
+    @Override
+    public int getSeedsRemaining() {
+        Queue<?> queue = seedQueue;
+        return queue == null ? 0 : queue.size();
+    }
+
+    @Override
+    public long getSeedsSplit() {
+        return seedsSplit.sum();
+    }
+
+    @Override
+    public long getEstimatedWork() {
+        return estimatedWork;
+    }
+
+    @Override
+    public long getLargestSeedWork() {
+        return largestSeedWork;
+    }
+
+    @Override
+    public long getWarmStartMisses() {
+        return warmStartMisses.sum();
+    }
+
+    @Override
+    public long getHeapOverflows() {
+        return heapOverflows.sum();
+    }
+
+    @Override
+    public long getFrontierBudget() {
+        return frontierBudget;
+    }
+
+    @Override
+    public long getStateBytes() {
+        return stateBytes;
+    }
+
+    @Override
+    public int getPerimeterSlack() {
+        return perimeterSlack;
+    }
+
+    @Override
+    public double getDroppedBound() {
+        PerimeterFrontier frontier = perimeterFrontier;
+        return frontier == null ? Double.POSITIVE_INFINITY : frontier.getMinBound();
+    }
+
+    @Override
+    public long getHeapSizeMedian() {
+        return heapSizes.percentile(0.5);
+    }
+
+    @Override
+    public long getIterateNanosMedian() {
+        return iterateNanos.percentile(0.5);
+    }
+
+    @Override
+    public long getIterateNanos99() {
+        return iterateNanos.percentile(0.99);
+    }
+
+    @Override
+    public long getIdleMillis() {
+        return idleNanos.sum() / 1000000;
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server under the specified name.
+     * @param name
+     */
+    public synchronized void register(String name) {
+        try {
+            this.name = new ObjectName("com.ariweiland.biophysics:type=FoldMetrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, this.name);
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Removes these metrics from the platform MBean server, if they were registered.
+     */
+    public synchronized void unregister() {
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                throw new RuntimeException(e);
+            }
+            name = null;
+        }
+    }
+
+    /**
+     * Appends a snapshot of these metrics to the file once every period, until stopSnapshots is called.
+     * @param file
+     * @param period
+     * @param unit
+     */
+    public synchronized void startSnapshots(final File file, long period, TimeUnit unit) {
+        stopSnapshots();
+        snapshots = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "FoldMetrics snapshots");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        snapshots.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                writeSnapshot(file);
+            }
+        }, period, period, unit);
+    }
+
+    public synchronized void stopSnapshots() {
+        if (snapshots != null) {
+            snapshots.shutdown();
+            snapshots = null;
+        }
+    }
+
+    /**
+     * Appends one line with the current value of every metric to the file.
+     * @param file
+     */
+    public void writeSnapshot(File file) {
+        PrintWriter pw = null;
+        try {
+            pw = new PrintWriter(new FileWriter(file, true));
+            pw.println(toString());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (pw != null) {
+                pw.close();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "time=" + System.currentTimeMillis()
+                + " elapsedMs=" + getElapsedMillis()
+                + " expanded=" + getStatesExpanded()
+                + " rate=" + Math.round(getExpansionRate())
+                + " children=" + getChildrenGenerated()
+                + " perimeterPrunes=" + getPerimeterPrunes()
+                + " deadEndPrunes=" + getDeadEndPrunes()
+                + " childrenDeferred=" + getChildrenDeferred()
+                + " transpositionRejects=" + getTranspositionRejects()
+                + " solutions=" + getSolutionsFound()
+                + " incumbent=" + incumbent
+                + " expansionsToBest=" + getExpansionsToBest()
+                + " seedsTaken=" + getSeedsTaken()
+                + " seedsSkipped=" + getSeedsSkipped()
+                + " seedsRemaining=" + getSeedsRemaining()
+                + " seedsSplit=" + getSeedsSplit()
+                + " estimatedWork=" + getEstimatedWork()
+                + " largestSeedWork=" + getLargestSeedWork()
+                + " warmStartMisses=" + getWarmStartMisses()
+                + " heapOverflows=" + getHeapOverflows()
+                + " frontierBudget=" + getFrontierBudget()
+                + " stateBytes=" + getStateBytes()
+                + " perimeterSlack=" + getPerimeterSlack()
+                + " droppedBound=" + getDroppedBound()
+                + " heapSizeP50=" + getHeapSizeMedian()
+                + " iterateNsP50=" + getIterateNanosMedian()
+                + " iterateNsP99=" + getIterateNanos99()
+                + " idleMs=" + getIdleMillis();
+    }
+
+    /**
+     * A counter that spreads its updates over several slots, picked by thread, so that
+     * threads counting at the same time rarely contend. Reading it sums the slots.
+     */
+    public static class Counter {
+
+        private static final int STRIPES = 16;
+        private static final int PADDING = 8; // one slot per 64 byte cache line
+
+        private final AtomicLongArray slots = new AtomicLongArray(STRIPES * PADDING);
+
+        public void increment() {
+            add(1);
+        }
+
+        public void add(long delta) {
+            int stripe = (int) (Thread.currentThread().getId() % STRIPES);
+            slots.addAndGet(stripe * PADDING, delta);
+        }
+
+        public long sum() {
+            long sum = 0;
+            for (int i=0; i<STRIPES; i++) {
+                sum += slots.get(i * PADDING);
+            }
+            return sum;
+        }
+
+        public void reset() {
+            for (int i=0; i<STRIPES; i++) {
+                slots.set(i * PADDING, 0);
+            }
+        }
+    }
+
+    /**
+     * A histogram of non-negative values, where bucket i counts the values
+     * that take exactly i bits to write, so bucket 0 only holds zeroes.
+     */
+    public static class Histogram {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+        public void record(long value) {
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(0, value)));
+        }
+
+        /**
+         * Returns the upper end of the bucket that holds the specified fraction of the values.
+         * @param fraction
+         * @return
+         */
+        public long percentile(double fraction) {
+            long[] counts = getCounts();
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            long target = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i=0; i<counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target && seen > 0) {
+                    return i == 0 ? 0 : (1L << i) - 1;
+                }
+            }
+            return 0;
+        }
+
+        public long[] getCounts() {
+            long[] counts = new long[buckets.length()];
+            for (int i=0; i<counts.length; i++) {
+                counts[i] = buckets.get(i);
+            }
+            return counts;
+        }
+
+        public void reset() {
+            for (int i=0; i<buckets.length(); i++) {
+                buckets.set(i, 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.ariweiland.biophysics.modeler;
+
+/**
+ * The JMX view of FoldMetrics.
+ * @author Ari Weiland
+ */
+public interface FoldMetricsMXBean {
+
+    long getElapsedMillis();
+
+    long getStatesExpanded();
+
+    /**
+     * Returns the states expanded per second since the fold started
+     * @return
+     */
+    double getExpansionRate();
+
+    long getChildrenGenerated();
+
+    long getPerimeterPrunes();
+
+    long getDeadEndPrunes();
+
+    /**
+     * Returns how many times a partially expanded state went back on the heap
+     * to generate the rest of its children later
+     * @return
+     */
+    long getChildrenDeferred();
+
+    long getTranspositionRejects();
+
+    long getSolutionsFound();
+
+    /**
+     * Returns how many states had been expanded when the best solution was found,
+     * which is how quickly a search strategy gets to the answer
+     * @return
+     */
+    long getExpansionsToBest();
+
+    /**
+     * Returns every improvement of the best solution as "elapsed time:energy"
+     * @return
+     */
+    String[] getIncumbentHistory();
+
+    long getSeedsTaken();
+
+    /**
+     * Returns the number of seeds dropped because they could not beat the best solution
+     * @return
+     */
+    long getSeedsSkipped();
+
+    int getSeedsRemaining();
+
+    /**
+     * Returns the number of seeds adaptive seeding replaced by their children
+     * @return
+     */
+    long getSeedsSplit();
+
+    /**
+     * Returns how many states adaptive seeding estimated the seeds would expand
+     * before any of them were split
+     * @return
+     */
+    long getEstimatedWork();
+
+    long getLargestSeedWork();
+
+    /**
+     * Returns 1 if the fold had to start over because nothing reached the energy
+     * it was given, otherwise 0
+     * @return
+     */
+    long getWarmStartMisses();
+
+    /**
+     * Returns the number of states that replaced another state in a full heap
+     * @return
+     */
+    long getHeapOverflows();
+
+    /**
+     * Returns how many heap states the searches could share when they started
+     * @return
+     */
+    long getFrontierBudget();
+
+    /**
+     * Returns the measured size of one heap state in bytes, or 0 if it was not measured
+     * @return
+     */
+    long getStateBytes();
+
+    int getPerimeterSlack();
+
+    /**
+     * Returns the lowest bound of any folding a widening fold dropped for not fitting in
+     * the perimeter bound, or positive infinity if it dropped none or is not widening
+     * @return
+     */
+    double getDroppedBound();
+
+    long getHeapSizeMedian();
+
+    long getIterateNanosMedian();
+
+    long getIterateNanos99();
+
+    /**
+     * Returns the total time threads spent finished while other threads were still searching
+     * @return
+     */
+    long getIdleMillis();
+
+    void reset();
+}
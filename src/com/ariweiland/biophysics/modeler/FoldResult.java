@@ -0,0 +1,26 @@
+package com.ariweiland.biophysics.modeler;
+
+import com.ariweiland.biophysics.lattice.CheckedLattice;
+
+/**
+ * This class is a simple wrapper for the outcome of a fold. It contains the best complete
+ * folding that was found, and whether the search finished, which proves that no better
+ * folding exists within the modeler's perimeter bound. A fold that was cancelled or timed
+ * out, or that had to drop states from a full heap, is not proven optimal.
+ * @author Ari Weiland
+ */
+public class FoldResult {
+
+    public final CheckedLattice lattice;
+    public final boolean optimal;
+
+    public FoldResult(CheckedLattice lattice, boolean optimal) {
+        this.lattice = lattice;
+        this.optimal = optimal;
+    }
+
+    @Override
+    public String toString() {
+        return lattice.getEnergy() + (optimal ? " (optimal)" : " (best found)");
+    }
+}
@@ -0,0 +1,31 @@
+package com.ariweiland.biophysics.modeler;
+
+import com.ariweiland.biophysics.lattice.Folding;
+
+/**
+ * This interface receives the complete foldings of ParallelModeler.enumerate. Only foldings
+ * whose bounds are at most the threshold are searched, so every complete folding with an
+ * energy at most the threshold is offered exactly once. The threshold may go down while the
+ * search runs, but never up. Foldings are offered from several threads at once.
+ * @author Ari Weiland
+ */
+public interface FoldingCollector {
+
+    /**
+     * Bounds are not rounded like energies are, so thresholds should allow for this
+     * much error when pruning
+     */
+    double TOLERANCE = 0.001;
+
+    /**
+     * Returns the highest energy bound still worth searching
+     * @return
+     */
+    double getThreshold();
+
+    /**
+     * Receives a complete folding
+     * @param solution
+     */
+    void offer(Folding solution);
+}
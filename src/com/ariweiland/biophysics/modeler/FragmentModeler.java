@@ -0,0 +1,502 @@
+package com.ariweiland.biophysics.modeler;
+
+import com.ariweiland.biophysics.Point;
+import com.ariweiland.biophysics.Symmetry;
+import com.ariweiland.biophysics.lattice.CheckedLattice;
+import com.ariweiland.biophysics.lattice.Folding;
+import com.ariweiland.biophysics.lattice.Lattice;
+import com.ariweiland.biophysics.lattice.MovableLattice;
+import com.ariweiland.biophysics.lattice.PullMove;
+import com.ariweiland.biophysics.peptide.Peptide;
+import com.ariweiland.biophysics.peptide.Polypeptide;
+import com.ariweiland.biophysics.peptide.Residue;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class folds polypeptides that are too long for the exact modelers, by folding short
+ * overlapping fragments and assembling them. The result is usually close to optimal, but
+ * is never proven so.
+ *
+ * Each fragment is folded by its own CurrentParallelModeler, which keeps popping solutions
+ * off its heap to find the lowest energy conformations of the fragment, not just the best.
+ * The fragments are then joined from left to right in a beam search. A fragment joins the
+ * chain by rotating or reflecting one of its conformations so that its overlap with the
+ * previous fragment lands exactly on the chain, and the residues past the overlap must not
+ * collide with the chain. The best joins by lattice energy, which includes the contacts
+ * between fragments, are kept for the next fragment. If no conformation fits, the overlap
+ * that must match is shortened, and as a last resort the chain is completed depth-first.
+ *
+ * Finally, the best assemblies are refined by random pull moves at a low temperature,
+ * keeping the best folding seen, until no better folding has turned up for a while.
+ *
+ * Fragments, joins and refinements are all spread over a thread pool.
+ *
+ * @author Ari Weiland
+ */
+public class FragmentModeler {
+
+    private final int dimension;
+    private int fragmentSize = 14;
+    private int overlap = 4;
+    private int conformations = 32;
+    private int beamWidth = 64;
+    private int fragmentExpansions = 200000;
+    private int plateauMoves = 20000;
+    private double temperature = 0.4;
+    private volatile CancellationToken token;
+
+    public FragmentModeler(int dimension) {
+        if (dimension < 2 || dimension > 3) {
+            throw new IllegalArgumentException("Dimension of less than 2 or more than 3 does not make sense");
+        }
+        this.dimension = dimension;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Sets the length of the fragments, and how many residues consecutive fragments share.
+     * Polypeptides no longer than one fragment are folded exactly.
+     * @param fragmentSize
+     * @param overlap
+     */
+    public void setFragments(int fragmentSize, int overlap) {
+        if (overlap < 1 || overlap >= fragmentSize) {
+            throw new IllegalArgumentException("The overlap must be at least 1 and less than the fragment size");
+        }
+        this.fragmentSize = fragmentSize;
+        this.overlap = overlap;
+    }
+
+    /**
+     * Sets how many conformations are kept for each fragment, and
+     * how many of those expansions each fragment may spend finding them
+     * @param conformations
+     * @param fragmentExpansions
+     */
+    public void setConformations(int conformations, int fragmentExpansions) {
+        this.conformations = conformations;
+        this.fragmentExpansions = fragmentExpansions;
+    }
+
+    /**
+     * Sets how many partial assemblies are kept after each fragment is joined
+     * @param beamWidth
+     */
+    public void setBeamWidth(int beamWidth) {
+        this.beamWidth = beamWidth;
+    }
+
+    /**
+     * Sets how many moves in a row refinement may make without finding a better folding,
+     * and the temperature, in units of energy, at which it accepts moves that raise the energy
+     * @param plateauMoves
+     * @param temperature
+     */
+    public void setRefinement(int plateauMoves, double temperature) {
+        this.plateauMoves = plateauMoves;
+        this.temperature = temperature;
+    }
+
+    public void terminate() {
+        CancellationToken token = this.token;
+        if (token != null) {
+            token.cancel();
+        }
+    }
+
+    public CheckedLattice fold(Polypeptide polypeptide) {
+        return fold(polypeptide, new CancellationToken()).lattice;
+    }
+
+    /**
+     * Folds the polypeptide, giving up once the timeout has passed.
+     * @param polypeptide
+     * @param timeout
+     * @param unit
+     * @return
+     */
+    public FoldResult fold(Polypeptide polypeptide, long timeout, TimeUnit unit) {
+        return fold(polypeptide, new CancellationToken(timeout, unit));
+    }
+
+    /**
+     * Folds the polypeptide until it is done or the token is cancelled. A cancelled fold
+     * skips straight to finishing the best assembly it has, so it still returns a complete
+     * folding.
+     * @param polypeptide
+     * @param token
+     * @return
+     */
+    public FoldResult fold(Polypeptide polypeptide, CancellationToken token) {
+        this.token = token;
+        int size = polypeptide.size();
+        if (size <= fragmentSize) {
+            return new CurrentParallelModeler(dimension).fold(polypeptide, token);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<Integer> starts = new ArrayList<>();
+            for (int start = 0; start + overlap < size; start += fragmentSize - overlap) {
+                starts.add(Math.min(start, size - fragmentSize));
+            }
+            List<Future<List<Point[]>>> fragments = new ArrayList<>();
+            for (int start : starts) {
+                fragments.add(executor.submit(new FragmentTask(polypeptide, start, token)));
+            }
+
+            List<Assembly> beam = new ArrayList<>();
+            for (Point[] conformation : fragments.get(0).get()) {
+                beam.add(new Assembly(dimension, polypeptide, conformation));
+            }
+            for (int f = 1; f < starts.size(); f++) {
+                List<Point[]> fragment = fragments.get(f).get();
+                if (token.isCancelled()) {
+                    break;
+                }
+                int start = starts.get(f);
+                int end = start + fragmentSize;
+                int shared = beam.get(0).end - start;
+                List<Assembly> joined = Collections.emptyList();
+                for (int match = shared; match > 0 && joined.isEmpty(); match--) {
+                    joined = join(executor, polypeptide, beam, fragment, start, end, match);
+                }
+                if (joined.isEmpty()) {
+                    break;
+                }
+                beam = joined;
+            }
+
+            CheckedLattice best = refine(executor, complete(polypeptide, beam), token);
+            return new FoldResult(best, false);
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Joins every conformation of the next fragment to every assembly in the beam, in
+     * every orientation that puts the last match residues of the overlap on top of the
+     * assembly, and returns the best joins that do not collide, without duplicates.
+     * @param executor
+     * @param polypeptide
+     * @param beam
+     * @param fragment
+     * @param start
+     * @param end
+     * @param match
+     * @return
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    private List<Assembly> join(ExecutorService executor, final Polypeptide polypeptide, List<Assembly> beam,
+                                List<Point[]> fragment, final int start, final int end, final int match)
+            throws InterruptedException, ExecutionException {
+        // orient every conformation once, instead of once per assembly
+        final List<Point[]> oriented = new ArrayList<>();
+        for (Point[] conformation : fragment) {
+            for (Symmetry symmetry : Symmetry.values(dimension)) {
+                Point[] points = new Point[conformation.length];
+                for (int i=0; i<points.length; i++) {
+                    points[i] = symmetry.apply(conformation[i]);
+                }
+                oriented.add(points);
+            }
+        }
+        List<Future<List<Assembly>>> futures = new ArrayList<>();
+        for (final Assembly assembly : beam) {
+            futures.add(executor.submit(new Callable<List<Assembly>>() {
+                @Override
+                public List<Assembly> call() {
+                    List<Assembly> joins = new ArrayList<>();
+                    for (Point[] points : oriented) {
+                        Assembly joined = assembly.join(polypeptide, points, start, end, match);
+                        if (joined != null) {
+                            joins.add(joined);
+                        }
+                    }
+                    return best(joins);
+                }
+            }));
+        }
+        List<Assembly> joins = new ArrayList<>();
+        for (Future<List<Assembly>> future : futures) {
+            joins.addAll(future.get());
+        }
+        return best(joins);
+    }
+
+    /**
+     * Returns the beamWidth assemblies with the lowest energies, dropping any that have
+     * the same residues at the same points as a better one.
+     * @param assemblies
+     * @return
+     */
+    private List<Assembly> best(List<Assembly> assemblies) {
+        Collections.sort(assemblies);
+        List<Assembly> best = new ArrayList<>();
+        Set<Long> seen = new HashSet<>();
+        for (Assembly assembly : assemblies) {
+            if (best.size() >= beamWidth) {
+                break;
+            }
+            if (seen.add(assembly.lattice.getContentHash())) {
+                best.add(assembly);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the complete foldings in the beam, or if the assembly stopped early, completes
+     * the best assembly depth-first the same way a cancelled fold of the whole chain would.
+     * @param polypeptide
+     * @param beam
+     * @return
+     */
+    private List<CheckedLattice> complete(Polypeptide polypeptide, List<Assembly> beam) {
+        List<CheckedLattice> lattices = new ArrayList<>();
+        Assembly best = beam.get(0);
+        if (best.end == polypeptide.size()) {
+            for (Assembly assembly : beam) {
+                lattices.add(assembly.lattice);
+            }
+        } else {
+            List<Folding> partials = new ArrayList<>();
+            partials.add(new Folding(best.lattice, best.points[best.end - 1], best.end - 1, best.lattice.getEnergy()));
+            lattices.add(new CurrentParallelModeler(dimension).getBestSoFar(polypeptide, null, partials).lattice);
+        }
+        return lattices;
+    }
+
+    /**
+     * Refines a few of the best foldings in parallel, and returns the best result.
+     * @param executor
+     * @param lattices
+     * @param token
+     * @return
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    private CheckedLattice refine(ExecutorService executor, List<CheckedLattice> lattices, final CancellationToken token)
+            throws InterruptedException, ExecutionException {
+        int count = Math.min(lattices.size(), Runtime.getRuntime().availableProcessors());
+        List<Future<CheckedLattice>> futures = new ArrayList<>();
+        for (final CheckedLattice lattice : lattices.subList(0, count)) {
+            futures.add(executor.submit(new Callable<CheckedLattice>() {
+                @Override
+                public CheckedLattice call() {
+                    return refine(lattice, token);
+                }
+            }));
+        }
+        CheckedLattice best = null;
+        for (Future<CheckedLattice> future : futures) {
+            CheckedLattice refined = future.get();
+            if (best == null || refined.getEnergy() < best.getEnergy()) {
+                best = refined;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Applies random pull moves to the folding, always keeping moves that do not raise the
+     * energy and keeping moves that do with the Boltzmann probability at the refinement
+     * temperature, until plateauMoves moves in a row have failed to beat the best folding
+     * seen. Pull moves only drag the chain toward its first residue, so the chain is also
+     * reversed at random to drag it both ways.
+     * @param lattice
+     * @param token
+     * @return
+     */
+    private CheckedLattice refine(CheckedLattice lattice, CancellationToken token) {
+        // refinements run in parallel and draw all the time, so they must not share Math.random
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        MovableLattice current = reverse(lattice);
+        boolean reversed = true;
+        double bestEnergy = lattice.getEnergy();
+        Lattice best = lattice;
+        int plateau = 0;
+        while (plateau < plateauMoves && !token.isCancelled()) {
+            List<PullMove> moves = current.getPullMoves();
+            if (!moves.isEmpty()) {
+                MovableLattice trial = new MovableLattice(current);
+                trial.pull(moves.get(random.nextInt(moves.size())));
+                double delta = trial.getEnergy() - current.getEnergy();
+                if (delta <= 0 || random.nextDouble() < Math.exp(-delta / temperature)) {
+                    current = trial;
+                }
+            }
+            if (current.getEnergy() < bestEnergy) {
+                bestEnergy = current.getEnergy();
+                best = reversed ? reverse(current) : new MovableLattice(current);
+                plateau = 0;
+            } else {
+                plateau++;
+            }
+            if (moves.isEmpty() || random.nextBoolean()) {
+                current = reverse(current);
+                reversed = !reversed;
+            }
+        }
+        if (best == lattice) {
+            return lattice;
+        }
+        // rebuild the lattice, so that its energy is counted from scratch
+        Point[] points = getPoints(best);
+        CheckedLattice refined = new CheckedLattice(dimension, points.length);
+        for (Point point : points) {
+            refined.put(point, best.get(point));
+        }
+        return refined.getEnergy() < lattice.getEnergy() ? refined : lattice;
+    }
+
+    /**
+     * Returns a copy of the lattice with the order of its peptides reversed,
+     * which has the same energy
+     * @param lattice
+     * @return
+     */
+    static MovableLattice reverse(Lattice lattice) {
+        Point[] points = getPoints(lattice);
+        MovableLattice reversed = new MovableLattice(lattice.getDimension(), points.length);
+        for (int i = points.length - 1; i >= 0; i--) {
+            reversed.put(points[i], new Peptide(points.length - 1 - i, lattice.get(points[i]).residue));
+        }
+        return reversed;
+    }
+
+    /**
+     * Returns the points of a lattice ordered by the index of their peptides
+     * @param lattice
+     * @return
+     */
+    static Point[] getPoints(Lattice lattice) {
+        Point[] points = new Point[lattice.size()];
+        for (Point point : lattice.points()) {
+            points[lattice.get(point).index] = point;
+        }
+        return points;
+    }
+
+    /**
+     * Finds the lowest energy conformations of one fragment, as points ordered by index.
+     */
+    private class FragmentTask implements Callable<List<Point[]>> {
+
+        private final Polypeptide fragment;
+        private final CancellationToken token;
+
+        private FragmentTask(Polypeptide polypeptide, int start, CancellationToken token) {
+            List<Residue> residues = new ArrayList<>();
+            for (int i = start; i < start + fragmentSize; i++) {
+                residues.add(polypeptide.get(i).residue);
+            }
+            this.fragment = new Polypeptide(residues);
+            this.token = token;
+        }
+
+        @Override
+        public List<Point[]> call() {
+            CurrentParallelModeler modeler = new CurrentParallelModeler(dimension);
+            Queue<Folding> queue = new PriorityQueue<>(modeler.initializeHeap(fragment));
+            List<Point[]> found = new ArrayList<>();
+            int expansions = 0;
+            // the bounds never overestimate, so solutions come off the heap from best to worst
+            while (!queue.isEmpty() && found.size() < conformations
+                    && expansions < fragmentExpansions && !token.isCancelled()) {
+                Folding solution = modeler.iterate(fragment, queue);
+                if (solution != null) {
+                    found.add(getPoints(solution.lattice));
+                } else {
+                    expansions++;
+                }
+            }
+            if (found.isEmpty()) {
+                List<Folding> partials = new ArrayList<>();
+                if (!queue.isEmpty()) {
+                    partials.add(queue.peek());
+                }
+                found.add(getPoints(modeler.getBestSoFar(fragment, null, partials).lattice));
+            }
+            return found;
+        }
+    }
+
+    /**
+     * A folding of the first end residues of the polypeptide
+     */
+    private static class Assembly implements Comparable<Assembly> {
+
+        private final CheckedLattice lattice;
+        private final Point[] points;
+        private final int end;
+
+        private Assembly(int dimension, Polypeptide polypeptide, Point[] conformation) {
+            this.lattice = new CheckedLattice(dimension, polypeptide.size());
+            this.points = Arrays.copyOf(conformation, polypeptide.size());
+            this.end = conformation.length;
+            for (int i=0; i<end; i++) {
+                lattice.put(points[i], polypeptide.get(i));
+            }
+        }
+
+        private Assembly(CheckedLattice lattice, Point[] points, int end) {
+            this.lattice = lattice;
+            this.points = points;
+            this.end = end;
+        }
+
+        /**
+         * Returns this assembly extended by the fragment from start to end, oriented as
+         * given, if the last match residues this assembly shares with it line up and the
+         * rest of it does not collide with this assembly. Otherwise returns null.
+         * @param polypeptide
+         * @param fragment
+         * @param start
+         * @param end
+         * @param match
+         * @return
+         */
+        private Assembly join(Polypeptide polypeptide, Point[] fragment, int start, int end, int match) {
+            Point anchor = points[this.end - 1];
+            Point image = fragment[this.end - 1 - start];
+            int dx = anchor.x - image.x;
+            int dy = anchor.y - image.y;
+            int dz = anchor.z - image.z;
+            for (int i = this.end - match; i < this.end - 1; i++) {
+                Point p = fragment[i - start];
+                if (!points[i].equals(new Point(p.x + dx, p.y + dy, p.z + dz))) {
+                    return null;
+                }
+            }
+            Point[] placed = new Point[end - this.end];
+            for (int i = this.end; i < end; i++) {
+                Point p = fragment[i - start];
+                placed[i - this.end] = new Point(p.x + dx, p.y + dy, p.z + dz);
+                if (lattice.contains(placed[i - this.end])) {
+                    return null;
+                }
+            }
+            CheckedLattice joined = new CheckedLattice(lattice);
+            Point[] joinedPoints = points.clone();
+            for (int i = this.end; i < end; i++) {
+                joinedPoints[i] = placed[i - this.end];
+                joined.put(joinedPoints[i], polypeptide.get(i));
+            }
+            return new Assembly(joined, joinedPoints, end);
+        }
+
+        @Override
+        public int compareTo(Assembly o) {
+            return Double.compare(lattice.getEnergy(), o.lattice.getEnergy());
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.ariweiland.biophysics.modeler;
+
+import com.ariweiland.biophysics.Point;
+import com.ariweiland.biophysics.lattice.CheckedLattice;
+import com.ariweiland.biophysics.lattice.Folding;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class shares one pool of heap capacity, counted in states, between the searches of
+ * a fold. Searches start with a small heap and take more capacity from the pool as their
+ * heaps fill up, then give it all back when they finish, so capacity flows to whichever
+ * searches are still running instead of being split evenly up front.
+ *
+ * The pool is sized from the memory the JVM can still use and the measured size of a
+ * complete state, so it scales with -Xmx and chain length. A search that cannot get more
+ * capacity keeps its heap as is, and FixedHeap starts replacing leaves instead of growing.
+ * Capacity is also refused whenever the JVM heap is nearly full, so the searches give up
+ * on growing before the garbage collector starts thrashing.
+ *
+ * @author Ari Weiland
+ */
+public class FrontierBudget {
+
+    public static final int INITIAL_CAPACITY = 1023;
+
+    // how much of the free memory the heaps may use, and how full the JVM heap may get
+    private static final double MEMORY_SHARE = 0.6;
+    private static final double MAX_HEAP_USAGE = 0.85;
+    private static final int SAMPLES = 64;
+
+    private final AtomicLong available;
+    private final long stateBytes;
+    private final boolean watchMemory;
+
+    /**
+     * Creates a budget of the specified number of states, each of which takes stateBytes.
+     * @param states
+     * @param stateBytes
+     */
+    public FrontierBudget(long states, long stateBytes) {
+        this(states, stateBytes, true);
+    }
+
+    private FrontierBudget(long states, long stateBytes, boolean watchMemory) {
+        this.available = new AtomicLong(states);
+        this.stateBytes = stateBytes;
+        this.watchMemory = watchMemory;
+    }
+
+    /**
+     * Creates a budget of the specified number of states that ignores how full the JVM heap
+     * is, so a search that has it to itself grows its heap at the same points every run.
+     * @param states
+     * @return
+     */
+    public static FrontierBudget fixed(long states) {
+        return new FrontierBudget(states, 0, false);
+    }
+
+    /**
+     * Creates a budget that fills a share of the free memory with states the size of the sample.
+     * @param sample a complete folding of the polypeptide
+     * @return
+     */
+    public static FrontierBudget fromMemory(CheckedLattice sample) {
+        long stateBytes = measureStateBytes(sample);
+        Runtime runtime = Runtime.getRuntime();
+        long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        return new FrontierBudget((long) (free * MEMORY_SHARE / stateBytes), stateBytes);
+    }
+
+    /**
+     * Measures how many bytes one heap state takes, by copying the sample a few times and
+     * counting what the current thread allocated. If the JVM cannot count allocations, it
+     * falls back to an estimate from the size of the lattice.
+     * @param sample
+     * @return
+     */
+    public static long measureStateBytes(CheckedLattice sample) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+            long id = Thread.currentThread().getId();
+            long before = allocations.getThreadAllocatedBytes(id);
+            if (before >= 0) {
+                Folding[] copies = new Folding[SAMPLES];
+                long arrayBytes = allocations.getThreadAllocatedBytes(id) - before;
+                for (int i=0; i<SAMPLES; i++) {
+                    copies[i] = new Folding(new CheckedLattice(sample), new Point(0, 0, 0), sample.size() - 1, 0);
+                }
+                long bytes = allocations.getThreadAllocatedBytes(id) - before - arrayBytes;
+                if (copies[SAMPLES - 1] != null && bytes > 0) {
+                    // add a heap slot per state
+                    return bytes / SAMPLES + 8;
+                }
+            }
+        }
+        // roughly 48 bytes per map entry and table slot, plus the lattice, folding and heap slot
+        return 48L * sample.size() + 256;
+    }
+
+    public long getStateBytes() {
+        return stateBytes;
+    }
+
+    public long getAvailable() {
+        return available.get();
+    }
+
+    /**
+     * Takes the specified number of states from the budget and returns true, or returns
+     * false and takes nothing if there are not enough left or the JVM heap is nearly full.
+     * @param states
+     * @return
+     */
+    public boolean acquire(int states) {
+        if (watchMemory) {
+            Runtime runtime = Runtime.getRuntime();
+            long used = runtime.totalMemory() - runtime.freeMemory();
+            if (used + states * stateBytes > runtime.maxMemory() * MAX_HEAP_USAGE) {
+                return false;
+            }
+        }
+        long current = available.get();
+        while (current >= states) {
+            if (available.compareAndSet(current, current - states)) {
+                return true;
+            }
+            current = available.get();
+        }
+        return false;
+    }
+
+    /**
+     * Returns states to the budget
+     * @param states
+     */
+    public void release(int states) {
+        available.addAndGet(states);
+    }
+}
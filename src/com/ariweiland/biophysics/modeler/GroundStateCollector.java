@@ -0,0 +1,56 @@
+package com.ariweiland.biophysics.modeler;
+
+import com.ariweiland.biophysics.lattice.CheckedLattice;
+import com.ariweiland.biophysics.lattice.Folding;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class gathers the distinct complete foldings with the lowest energy seen so far,
+ * for the searches of ParallelModeler.foldGroundStates. If a folding with a lower energy
+ * turns up, everything gathered so far is dropped and that becomes the new target.
+ * @author Ari Weiland
+ */
+class GroundStateCollector implements FoldingCollector {
+
+    private final Map<String, CheckedLattice> lattices = new LinkedHashMap<>();
+    private volatile double target;
+
+    GroundStateCollector(double target) {
+        this.target = target;
+    }
+
+    /**
+     * Returns the energy of the ground states found so far
+     * @return
+     */
+    double getTarget() {
+        return target;
+    }
+
+    @Override
+    public double getThreshold() {
+        return target + TOLERANCE;
+    }
+
+    @Override
+    public synchronized void offer(Folding solution) {
+        double energy = solution.lattice.getEnergy();
+        if (energy < target) {
+            target = energy;
+            lattices.clear();
+        }
+        if (energy == target) {
+            String key = GroundStates.canonicalKey(solution.lattice);
+            if (!lattices.containsKey(key)) {
+                lattices.put(key, solution.lattice);
+            }
+        }
+    }
+
+    synchronized GroundStates getResult(boolean complete) {
+        return new GroundStates(target, new ArrayList<>(lattices.values()), complete);
+    }
+}
@@ -0,0 +1,75 @@
+package com.ariweiland.biophysics.modeler;
+
+import com.ariweiland.biophysics.Point;
+import com.ariweiland.biophysics.Symmetry;
+import com.ariweiland.biophysics.lattice.CheckedLattice;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class is a simple wrapper for the outcome of ParallelModeler.foldGroundStates.
+ * It contains the lowest energy found, one folding for every distinct conformation with
+ * that energy, and whether the search finished, which proves that these are all of them.
+ *
+ * Two foldings are the same conformation if a symmetry of the lattice and a translation
+ * map one onto the other, or for a palindromic sequence, the other read backwards.
+ * @author Ari Weiland
+ */
+public class GroundStates {
+
+    public final double energy;
+    public final List<CheckedLattice> lattices;
+    public final boolean complete;
+
+    public GroundStates(double energy, List<CheckedLattice> lattices, boolean complete) {
+        this.energy = energy;
+        this.lattices = Collections.unmodifiableList(lattices);
+        this.complete = complete;
+    }
+
+    /**
+     * Returns a string that is the same for two foldings of the same polypeptide exactly when
+     * they are the same conformation. On a surface, only the symmetries that keep the surface
+     * in place count, and foldings are only translated parallel to the surface.
+     * @param lattice
+     * @return
+     */
+    public static String canonicalKey(CheckedLattice lattice) {
+        int size = lattice.size();
+        Point[] chain = new Point[size];
+        for (Point point : lattice.points()) {
+            chain[lattice.get(point).index] = point;
+        }
+        boolean palindrome = true;
+        for (int i=0; i<size / 2; i++) {
+            palindrome &= lattice.get(chain[i]).residue == lattice.get(chain[size - 1 - i]).residue;
+        }
+        String key = null;
+        for (Symmetry symmetry : Symmetry.values(lattice.getDimension())) {
+            if (lattice.hasSurface() && !symmetry.keepsVertical()) {
+                continue;
+            }
+            for (int direction = 0; direction < (palindrome ? 2 : 1); direction++) {
+                Point origin = symmetry.apply(chain[direction == 0 ? 0 : size - 1]);
+                StringBuilder sb = new StringBuilder();
+                for (int i=0; i<size; i++) {
+                    Point point = symmetry.apply(chain[direction == 0 ? i : size - 1 - i]);
+                    sb.append(point.x - origin.x).append(",")
+                            .append(lattice.hasSurface() ? point.y : point.y - origin.y).append(",")
+                            .append(point.z - origin.z).append(";");
+                }
+                String candidate = sb.toString();
+                if (key == null || candidate.compareTo(key) < 0) {
+                    key = candidate;
+                }
+            }
+        }
+        return key;
+    }
+
+    @Override
+    public String toString() {
+        return energy + ": " + lattices.size() + (complete ? " ground states" : " ground states found so far");
+    }
+}
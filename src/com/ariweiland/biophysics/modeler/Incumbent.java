@@ -0,0 +1,59 @@
+package com.ariweiland.biophysics.modeler;
+
+import com.ariweiland.biophysics.lattice.Folding;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class holds the best solution of a parallel fold. Workers check every seed and
+ * solution against it, so it is read with a single volatile load, and only replaced
+ * with a compare-and-set when a worker finds something better.
+ *
+ * @author Ari Weiland
+ */
+public class Incumbent {
+
+    private final AtomicReference<Folding> best;
+
+    public Incumbent() {
+        this(null);
+    }
+
+    public Incumbent(Folding initial) {
+        this.best = new AtomicReference<>(initial);
+    }
+
+    /**
+     * Returns the best solution so far, or null if there is none
+     * @return
+     */
+    public Folding get() {
+        return best.get();
+    }
+
+    /**
+     * Returns true if the folding is better than the best solution so far
+     * @param folding
+     * @return
+     */
+    public boolean isBeatenBy(Folding folding) {
+        Folding current = best.get();
+        return current == null || folding.compareTo(current) < 0;
+    }
+
+    /**
+     * Makes the folding the best solution if it is better than the current one
+     * @param folding
+     * @return true if it replaced the best solution
+     */
+    public boolean offer(Folding folding) {
+        Folding current = best.get();
+        while (current == null || folding.compareTo(current) < 0) {
+            if (best.compareAndSet(current, folding)) {
+                return true;
+            }
+            current = best.get();
+        }
+        return false;
+    }
+}
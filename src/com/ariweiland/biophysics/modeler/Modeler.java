@@ -16,7 +16,13 @@ public abstract class Modeler {
 
     public static final int MAX_HEAP_SIZE = 4194304; // 262144, 524288, 1048576, 2097152, 4194304
 
+    public static final int DEFAULT_SURFACE_SLACK = 2;
+
     private final int dimension;
+    private final FoldMetrics metrics = new FoldMetrics();
+    private volatile int surfaceSlack = DEFAULT_SURFACE_SLACK;
+    private volatile SearchStrategy searchStrategy = SearchStrategy.BEST_BOUND;
+    private volatile SearchContext searchContext;
 
     protected Modeler(int dimension) {
         if (dimension < 2 || dimension > 3) {
@@ -29,6 +35,40 @@ public abstract class Modeler {
         return dimension;
     }
 
+    /**
+     * Returns the metrics of the current or most recent fold
+     * @return
+     */
+    public FoldMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int getSurfaceSlack() {
+        return surfaceSlack;
+    }
+
+    /**
+     * Sets how far getSurfaceBound reaches past the ideal bound, in steps of 2 units of
+     * perimeter in 2D or half a unit of box side in 3D. The default is 2.
+     * @param surfaceSlack
+     */
+    public void setSurfaceSlack(int surfaceSlack) {
+        this.surfaceSlack = surfaceSlack;
+    }
+
+    public SearchStrategy getSearchStrategy() {
+        return searchStrategy;
+    }
+
+    /**
+     * Sets the order in which searches expand partial foldings. The default is
+     * SearchStrategy.BEST_BOUND.
+     * @param searchStrategy
+     */
+    public void setSearchStrategy(SearchStrategy searchStrategy) {
+        this.searchStrategy = searchStrategy;
+    }
+
     /**
      * This method should stop the current folding process, if one is occurring.
      */
@@ -54,12 +94,12 @@ public abstract class Modeler {
      * For 2 dimensions, returns the perimeter of the
      * smallest rectangle the polypeptide can fit in.
      * For m^2 < n <= (m+1)^2,
-     *  - returns 4m + 6 if n <= m(m+1)
-     *  - returns 4m + 8 otherwise
+     *  - returns 4m + 2 + 2 * slack if n <= m(m+1)
+     *  - returns 4m + 4 + 2 * slack otherwise
      *
      * For 3 dimensions, returns the surface area of
      * the smallest box the polypeptide can fit in.
-     * It returns 6 * m^2 where m = n^(1/3) + 1
+     * It returns 6 * m^2 where m = n^(1/3) + slack / 2
      *
      * @param polypeptide
      * @return
@@ -72,15 +112,43 @@ public abstract class Modeler {
             if (n > m * (m + 1)) {
                 maxPerim += 2;
             }
-            // add 4 because the ideal perimeter bound is overly limiting
-            return maxPerim + 4;
+            // add 4 by default because the ideal perimeter bound is overly limiting. the fudge
+            // factors in notes.txt only show that some sequences need at least that much, not
+            // that others need less, so they cannot be used to tighten this
+            return maxPerim + 2 * surfaceSlack;
         } else {
-            // add 1 because the ideal surface bound is overly limiting
-            double m = Math.pow(n, 1.0 / 3.0) + 1;
+            // add 1 by default because the ideal surface bound is overly limiting
+            double m = Math.pow(n, 1.0 / 3.0) + surfaceSlack / 2.0;
             return (int) (6 * m * m);
         }
     }
 
+    /**
+     * Returns the search context for the polypeptide, building a new one if the
+     * polypeptide, the surface slack or the interaction scheme has changed since
+     * the last one was built.
+     * @param polypeptide
+     * @return
+     */
+    protected SearchContext getSearchContext(Polypeptide polypeptide) {
+        SearchContext context = searchContext;
+        if (context == null || !context.isFor(polypeptide, surfaceSlack)) {
+            context = createSearchContext(polypeptide);
+            searchContext = context;
+        }
+        return context;
+    }
+
+    /**
+     * Builds the search context for the polypeptide from the current settings
+     * @param polypeptide
+     * @return
+     */
+    protected SearchContext createSearchContext(Polypeptide polypeptide) {
+        return new SearchContext(polypeptide, dimension, surfaceSlack, getSurfaceBound(polypeptide),
+                Integer.MAX_VALUE, null);
+    }
+
     /**
      * In the iteration phase, we can only account for favorable water interactions, because removing them
      * increases the energy value. Unfavorable water interactions, when removed, would decrease the energy
@@ -1,37 +1,103 @@
 package com.ariweiland.biophysics.modeler;
 
+import com.ariweiland.biophysics.Direction;
+import com.ariweiland.biophysics.Point;
 import com.ariweiland.biophysics.lattice.Folding;
 import com.ariweiland.biophysics.lattice.CheckedLattice;
 import com.ariweiland.biophysics.peptide.Polypeptide;
+import com.ariweiland.biophysics.peptide.Residue;
 
+import java.util.*;
 import java.util.concurrent.PriorityBlockingQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Ari Weiland
  */
 public abstract class ParallelModeler extends Modeler {
 
-    private AtomicBoolean running = new AtomicBoolean();
-    private PeptideThread[] threads;
+    private static final int COMPLETION_LIMIT = 100000;
+    private static final int WIDENING_CAPACITY = 1 << 18;
+    private static final int DIVE_LIMIT = 100000;
+
+    private volatile CancellationToken token;
+    private int transpositionTableSize = 1 << 20;
+    private volatile TranspositionTable transpositions;
+    private volatile PerimeterFrontier perimeterFrontier;
+    private volatile Incumbent perimeterIncumbent;
+    private int deterministicPartitions = 0;
+    private boolean adaptiveSeeding = true;
 
     protected ParallelModeler(int dimension) {
         super(dimension);
     }
 
     /**
-     * Dynamically calculates an ideal seed count for a given polypeptide.
+     * Creates the current modeler for the dimension, folding near the surface if there is one
+     * @param dimension
+     * @param surface
+     * @return
+     */
+    public static ParallelModeler create(int dimension, Residue surface) {
+        if (surface == null) {
+            return new CurrentParallelModeler(dimension);
+        } else {
+            return new CurrentSurfaceModeler(dimension, surface);
+        }
+    }
+
+    /**
+     * Sets the number of entries in the transposition table that each fold uses to drop
+     * partial foldings it has already seen with a bound at least as good. A size of 0
+     * disables the table.
+     * @param size
+     */
+    public void setTranspositionTableSize(int size) {
+        this.transpositionTableSize = size;
+    }
+
+    /**
+     * Makes folds reproducible. The seeds are dealt out in order to the specified number
+     * of threads. Each thread only prunes against its own solutions and grows its heap
+     * from its own fixed share of MAX_HEAP_SIZE, and the transposition table is not used.
+     * The result then only depends on the polypeptide and the number of partitions, not
+     * on thread timing, memory or the machine, at the cost of sharing less pruning
+     * between threads. A count of 0 turns this off.
+     * @param partitions
+     */
+    public void setDeterministic(int partitions) {
+        this.deterministicPartitions = partitions;
+    }
+
+    /**
+     * Makes folds size their seeds to the threads instead of to the polypeptide. Seeding
+     * stops once there are a few dozen seeds per thread, then any seed that looks like
+     * much more than its share of the work is split up, see SeedPartitioner. The seed
+     * count from getSeedCount is still the most seeds a fold makes. Widening folds always
+     * seed the usual way. On by default; turning it off seeds up to getSeedCount states.
+     * @param adaptiveSeeding
+     */
+    public void setAdaptiveSeeding(boolean adaptiveSeeding) {
+        this.adaptiveSeeding = adaptiveSeeding;
+    }
+
+    /**
+     * Dynamically calculates the most seeds a fold makes for a given polypeptide.
      *
-     * It uses the formula 10^(polypeptide.size() + 2).
+     * It uses the formula 10^(polypeptide.size() / 10 + 1).
      *
-     * This results in a seed count of 1000 for size 10, 10000 for size 20,
-     * 100000 for size 30, etc. with intermediate sizes being in between.
+     * This results in a seed count of 100 for size 10, 1000 for size 20,
+     * 10000 for size 30, etc. with intermediate sizes being in between.
+     *
+     * With adaptive seeding, this is only a cap on how far the seeds are split, and the
+     * number of seeds follows the threads and the shape of the search instead. That also
+     * covers the extra branching in 3D, so the count does not depend on the dimension.
      *
      * @param polypeptide
      * @return
      */
     protected int getSeedCount(Polypeptide polypeptide) {
-        double exponent = polypeptide.size() / 10.0 + 1.0; // TODO + getDimension() - 1.0;
+        double exponent = polypeptide.size() / 10.0 + 1.0;
         return (int) Math.pow(10.0, exponent);
     }
 
@@ -44,57 +110,740 @@ public abstract class ParallelModeler extends Modeler {
      */
     protected abstract PriorityBlockingQueue<Folding> initializeHeap(Polypeptide polypeptide);
 
-    @Override
-    public void terminate() {
-        if (running.getAndSet(false) && threads != null) {
-            for (PeptideThread thread : threads) {
-                if (thread != null) {
-                    thread.terminate();
+    /**
+     * The initial heap seeds every folding in the xy-plane, with its first step (or its
+     * first step parallel to the surface) fixed along +x. In 3D, that leaves reflection
+     * through the xy-plane as the only unbroken symmetry, so this helper method only lets
+     * a folding leave its seeding plane by moving up. Any folding that first leaves by
+     * moving down is the mirror image of one that first leaves by moving up.
+     * @param folding
+     * @param nextDir
+     * @return
+     */
+    protected boolean isSymmetricallyUnique(Folding folding, Direction nextDir) {
+        return nextDir != Direction.DOWN || !folding.lattice.isPlanar();
+    }
+
+    /**
+     * Returns true if a newly generated folding should be added to the heap, which is
+     * the case unless the same partial folding has already been generated with a bound
+     * at least as good. Always true outside of fold, or if the table is disabled.
+     * @param folding
+     * @return
+     */
+    protected boolean isNewState(Folding folding) {
+        TranspositionTable table = transpositions;
+        if (table == null || table.offer(folding)) {
+            return true;
+        }
+        getMetrics().transpositionRejects.increment();
+        return false;
+    }
+
+    /**
+     * Returns true if foldWidening is running, in which case foldings dropped by the
+     * perimeter bound should be passed to recordPerimeterPrune with their energy bound.
+     * @return
+     */
+    protected boolean isWidening() {
+        return perimeterFrontier != null;
+    }
+
+    /**
+     * Records a folding that was dropped because it does not fit in the perimeter bound,
+     * unless it could not beat the best folding of the running fold anyway
+     * @param folding
+     */
+    protected void recordPerimeterPrune(Folding folding) {
+        PerimeterFrontier frontier = perimeterFrontier;
+        Incumbent incumbent = perimeterIncumbent;
+        if (frontier != null && (incumbent == null || incumbent.isBeatenBy(folding))) {
+            frontier.add(folding);
+        }
+    }
+
+    /**
+     * Returns false if the remaining residues provably cannot be placed after the last
+     * residue at end, because the open points it can reach are too few. It flood fills
+     * the open points from end, below maxY, and stops as soon as it has found enough.
+     *
+     * The lattice is bipartite, so the remaining residues alternate between points of
+     * the opposite parity to end and points of the same parity, and each parity is
+     * counted separately. This catches pockets that are big enough, but have the wrong
+     * shape to hold the rest of the chain.
+     * @param lattice
+     * @param end
+     * @param remaining
+     * @param maxY
+     * @return
+     */
+    protected boolean canComplete(CheckedLattice lattice, Point end, int remaining, int maxY) {
+        if (remaining == 0) {
+            return true;
+        }
+        // needed[0] counts points of the opposite parity to end, needed[1] of the same parity
+        int[] needed = {(remaining + 1) / 2, remaining / 2};
+        Set<Point> visited = new HashSet<>();
+        Deque<Point> open = new ArrayDeque<>();
+        visited.add(end);
+        open.add(end);
+        while (!open.isEmpty()) {
+            Point point = open.poll();
+            for (Direction d : Direction.values(getDimension())) {
+                Point adjacent = point.getAdjacent(d);
+                if (adjacent.y < maxY && !lattice.contains(adjacent) && visited.add(adjacent)) {
+                    int parity = Math.abs(adjacent.x + adjacent.y + adjacent.z - end.x - end.y - end.z) % 2 == 1 ? 0 : 1;
+                    needed[parity]--;
+                    if (needed[0] <= 0 && needed[1] <= 0) {
+                        return true;
+                    }
+                    open.add(adjacent);
                 }
             }
         }
+        return false;
+    }
+
+    /**
+     * Returns a complete folding that does not depend on the search, namely the polypeptide
+     * laid out in a straight line. It is what a fold returns if it is cancelled before any
+     * solution is found.
+     * @param polypeptide
+     * @return
+     */
+    protected CheckedLattice getUnfoldedLattice(Polypeptide polypeptide) {
+        CheckedLattice lattice = new CheckedLattice(getDimension(), polypeptide.size());
+        for (int i=0; i<polypeptide.size(); i++) {
+            lattice.put(new Point(i, 0, 0), polypeptide.get(i));
+        }
+        return lattice;
+    }
+
+    /**
+     * Iterates on the initial heap to make it bigger, until it has been iterated the seed
+     * count times, it holds the target number of seeds, or the token is cancelled. If a
+     * complete folding comes off the heap first, nothing left on it can beat that folding,
+     * so this returns it, or the incumbent if that is better. Otherwise it returns null.
+     * @param polypeptide
+     * @param token
+     * @param initialHeap
+     * @param incumbent
+     * @param target
+     * @return
+     */
+    protected Folding seedHeap(Polypeptide polypeptide, CancellationToken token,
+                               PriorityBlockingQueue<Folding> initialHeap, Folding incumbent, int target) {
+        int count = 0;
+        int seedCount = getSeedCount(polypeptide);
+        while (!token.isCancelled() && !initialHeap.isEmpty() && count < seedCount && initialHeap.size() < target) {
+            Folding solution = iterate(polypeptide, initialHeap);
+            if (solution != null) {
+                return incumbent != null && incumbent.compareTo(solution) < 0 ? incumbent : solution;
+            }
+            count++;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the result of a fold that was cut short. That is the best solution if there
+     * is one, otherwise a completion of the most promising partial folding, otherwise the
+     * unfolded polypeptide. None of these are proven optimal.
+     * @param polypeptide
+     * @param solution
+     * @param partials
+     * @return
+     */
+    protected FoldResult getBestSoFar(Polypeptide polypeptide, Folding solution, List<Folding> partials) {
+        if (solution != null) {
+            return new FoldResult(solution.lattice, false);
+        }
+        // duplicates are fine here, and the table could reject the only way forward
+        transpositions = null;
+        Collections.sort(partials);
+        for (Folding partial : partials) {
+            Folding completed = complete(polypeptide, partial, new int[]{COMPLETION_LIMIT});
+            if (completed != null) {
+                return new FoldResult(completed.lattice, false);
+            }
+        }
+        return new FoldResult(getUnfoldedLattice(polypeptide), false);
+    }
+
+    /**
+     * Completes a partial folding depth-first, trying the children with the lowest bounds
+     * first. Gives up and returns null once it has expanded limit[0] states.
+     * @param polypeptide
+     * @param folding
+     * @param limit
+     * @return
+     */
+    private Folding complete(Polypeptide polypeptide, Folding folding, int[] limit) {
+        if (folding.index == polypeptide.size() - 1) {
+            return folding;
+        }
+        if (limit[0]-- <= 0) {
+            return null;
+        }
+        Queue<Folding> children = new PriorityQueue<>();
+        children.add(folding);
+        iterate(polypeptide, children);
+        while (!children.isEmpty()) {
+            Folding completed = complete(polypeptide, children.poll(), limit);
+            if (completed != null) {
+                return completed;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void terminate() {
+        CancellationToken token = this.token;
+        if (token != null) {
+            token.cancel();
+        }
     }
 
     @Override
     public CheckedLattice fold(Polypeptide polypeptide) {
-        running.set(true);
-        PriorityBlockingQueue<Folding> initialHeap = initializeHeap(polypeptide);
+        return fold(polypeptide, new CancellationToken()).lattice;
+    }
 
+    /**
+     * Folds the polypeptide, giving up once the timeout has passed.
+     * @param polypeptide
+     * @param timeout
+     * @param unit
+     * @return
+     */
+    public FoldResult fold(Polypeptide polypeptide, long timeout, TimeUnit unit) {
+        return fold(polypeptide, new CancellationToken(timeout, unit));
+    }
+
+    /**
+     * Folds the polypeptide until the search finishes or the token is cancelled. Either way,
+     * it returns the best complete folding found, which is only flagged as optimal if the
+     * search finished without dropping any states. If it is cancelled before any folding
+     * is complete, it returns the unfolded polypeptide.
+     * @param polypeptide
+     * @param token
+     * @return
+     */
+    public FoldResult fold(Polypeptide polypeptide, CancellationToken token) {
+        return fold(polypeptide, token, initializeHeap(polypeptide), null);
+    }
+
+    /**
+     * Folds the polypeptide like fold, but prunes against the starting folding from the
+     * beginning instead of waiting for the search to find its first solution. The start
+     * only has to be a folding of a chain of the same length, such as the optimum of a
+     * similar sequence or a result of foldGreedy: the polypeptide is threaded along its
+     * points, and the search has to beat that. If nothing does, the start is the result.
+     * A null start folds as usual.
+     * @param polypeptide
+     * @param token
+     * @param start
+     * @return
+     * @throws IllegalArgumentException if start is not a valid folding of the polypeptide
+     */
+    public FoldResult fold(Polypeptide polypeptide, CancellationToken token, CheckedLattice start) {
+        if (start == null) {
+            return fold(polypeptide, token);
+        }
+        return fold(polypeptide, token, initializeHeap(polypeptide), toFolding(thread(polypeptide, start)));
+    }
+
+    /**
+     * Folds the polypeptide like fold, but only searches for foldings with at most the
+     * specified energy, such as a known upper bound on the optimum. If it turns out that no
+     * folding gets that low, the polypeptide is folded again from scratch, and the metrics
+     * of that fold count one warm start miss.
+     * @param polypeptide
+     * @param token
+     * @param energy
+     * @return
+     */
+    public FoldResult fold(Polypeptide polypeptide, CancellationToken token, double energy) {
+        // stands in for a folding of just above the energy, so that one of exactly that energy beats it
+        Folding unfolded = toFolding(getUnfoldedLattice(polypeptide));
+        Folding bound = new Folding(unfolded.lattice, unfolded.lastPoint, unfolded.index, Math.nextUp(energy));
+        FoldResult result = fold(polypeptide, token, initializeHeap(polypeptide), bound);
+        if (result.lattice == bound.lattice && !token.isCancelled()) {
+            // counted after the second fold, which resets the metrics
+            FoldResult again = fold(polypeptide, token);
+            getMetrics().warmStartMisses.increment();
+            return again;
+        }
+        return result;
+    }
+
+    /**
+     * Quickly folds the polypeptide by always following the child with the lowest bound.
+     * The result is usually not optimal, but it makes a good start for fold. Returns null
+     * if it runs into dead ends for too long to find a complete folding.
+     * @param polypeptide
+     * @return
+     */
+    public CheckedLattice foldGreedy(Polypeptide polypeptide) {
+        Folding folding = dive(polypeptide, initializeHeap(polypeptide));
+        return folding == null ? null : folding.lattice;
+    }
+
+    /**
+     * Returns a complete folding found by following the lowest bound down from each of the
+     * seeds in turn, best first, until one of them gets to the end without a dead end, or
+     * null if none of them does within DIVE_LIMIT expansions. It does not touch the
+     * transposition table unless a fold is running.
+     * @param polypeptide
+     * @param seeds
+     * @return
+     */
+    Folding dive(Polypeptide polypeptide, Collection<Folding> seeds) {
+        int size = polypeptide.size();
+        List<Folding> sorted = new ArrayList<>(seeds);
+        Collections.sort(sorted);
+        int limit = DIVE_LIMIT;
+        for (Folding seed : sorted) {
+            Folding folding = seed;
+            while (folding != null && folding.index < size - 1 && limit-- > 0) {
+                Queue<Folding> children = new ArrayDeque<>();
+                children.add(folding);
+                iterate(polypeptide, children);
+                folding = children.isEmpty() ? null : Collections.min(children);
+            }
+            if (folding != null && folding.index == size - 1) {
+                return folding;
+            }
+            if (limit <= 0) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the polypeptide threaded along the points of a complete folding of a chain
+     * of the same length, in the order of their indices
+     * @param polypeptide
+     * @param lattice
+     * @return
+     * @throws IllegalArgumentException if the folding does not fit the polypeptide
+     */
+    protected CheckedLattice thread(Polypeptide polypeptide, CheckedLattice lattice) {
+        int size = polypeptide.size();
+        if (lattice.size() != size) {
+            throw new IllegalArgumentException("The folding has " + lattice.size() + " residues, not " + size);
+        }
+        if (lattice.getDimension() != getDimension()) {
+            throw new IllegalArgumentException("The folding is not " + getDimension() + "D");
+        }
+        Point[] points = new Point[size];
+        for (Point point : lattice.points()) {
+            int index = lattice.get(point).index;
+            if (index < 0 || index >= size || points[index] != null) {
+                throw new IllegalArgumentException("The folding does not hold one residue at each index");
+            }
+            points[index] = point;
+        }
+        CheckedLattice threaded = new CheckedLattice(getDimension(), size, getUnfoldedLattice(polypeptide).getSurface());
+        for (int i=0; i<size; i++) {
+            if (i > 0 && Math.abs(points[i].x - points[i - 1].x) + Math.abs(points[i].y - points[i - 1].y)
+                    + Math.abs(points[i].z - points[i - 1].z) != 1) {
+                throw new IllegalArgumentException("Residues " + (i - 1) + " and " + i + " are not adjacent");
+            }
+            threaded.put(points[i], polypeptide.get(i));
+        }
+        return threaded;
+    }
+
+    /**
+     * Folds the polypeptide like fold, but starts with no slack in the perimeter bound and
+     * only widens it while a folding the bound dropped could still beat the best folding
+     * found. Most polypeptides never need the default slack, and the search gets much
+     * slower as the bound widens. Once nothing that was dropped could beat the best
+     * folding, it is optimal for any bound, so unlike fold, the result is proven optimal
+     * with no perimeter bound at all.
+     *
+     * Each wider fold carries on from the foldings the last one dropped, pruning against
+     * the best folding so far. If there were too many dropped foldings to keep, or the
+     * last fold dropped states from a full heap, it starts over instead.
+     *
+     * Surface modelers do not support it, since they drop foldings by height instead.
+     * @param polypeptide
+     * @param token
+     * @return
+     */
+    public FoldResult foldWidening(Polypeptide polypeptide, CancellationToken token) {
+        int size = polypeptide.size();
+        int slack = getSurfaceSlack();
+        Folding incumbent = null;
+        List<Folding> resume = null;
+        try {
+            // in 3D, the ideal bound can be smaller than any box of size cells, which would drop every seed
+            CheckedLattice point = new CheckedLattice(getDimension(), size);
+            point.put(new Point(0, 0, 0), polypeptide.get(0));
+            int minBox = point.minBoundingPerimeter(size);
+            int first = 0;
+            setSurfaceSlack(first);
+            while (getSurfaceBound(polypeptide) < minBox) {
+                setSurfaceSlack(++first);
+            }
+            for (int s = first; ; s++) {
+                setSurfaceSlack(s);
+                PerimeterFrontier frontier = new PerimeterFrontier(WIDENING_CAPACITY,
+                        incumbent == null ? Double.POSITIVE_INFINITY : incumbent.energyBound);
+                // set before the heap is initialized, so that seeds which are too wide are kept
+                perimeterFrontier = frontier;
+                boolean finished = true;
+                try {
+                    PriorityBlockingQueue<Folding> initialHeap;
+                    if (resume == null) {
+                        initialHeap = initializeHeap(polypeptide);
+                    } else {
+                        // foldings that are still too wide skip straight to the next widening
+                        initialHeap = new PriorityBlockingQueue<>(Math.max(1, resume.size()));
+                        for (Folding folding : resume) {
+                            if (folding.lattice.minBoundingPerimeter(size) > getSurfaceBound(polypeptide)) {
+                                frontier.add(folding);
+                            } else {
+                                initialHeap.add(folding);
+                            }
+                        }
+                    }
+                    if (!initialHeap.isEmpty()) {
+                        FoldResult result = fold(polypeptide, token, initialHeap, incumbent);
+                        if (incumbent == null || result.lattice.getEnergy() < incumbent.energyBound) {
+                            incumbent = toFolding(result.lattice);
+                        }
+                        finished = !token.isCancelled() && getMetrics().getHeapOverflows() == 0
+                                && getSearchStrategy().isAdmissible();
+                    }
+                } finally {
+                    perimeterFrontier = null;
+                }
+                if (!finished) {
+                    return new FoldResult(incumbent.lattice, false);
+                }
+                if (incumbent == null) {
+                    // every seed was too wide, so nothing was folded and everything must be widened
+                    if (token.isCancelled() || frontier.getMinBound() == Double.POSITIVE_INFINITY) {
+                        return getBestSoFar(polypeptide, null, new ArrayList<Folding>());
+                    }
+                    resume = frontier.isComplete() ? frontier.getFoldingsBelow(Double.POSITIVE_INFINITY) : null;
+                    continue;
+                }
+                if (incumbent.energyBound <= frontier.getMinBound()) {
+                    return new FoldResult(incumbent.lattice, true);
+                }
+                resume = frontier.isComplete() ? frontier.getFoldingsBelow(incumbent.energyBound) : null;
+            }
+        } finally {
+            setSurfaceSlack(slack);
+        }
+    }
+
+    /**
+     * Finds every distinct folding with the lowest energy, up to the symmetries described in
+     * GroundStates. It first folds the polypeptide to get the ground state energy, then
+     * enumerates every folding whose bound is no worse than that, pruning only the ones that
+     * are strictly worse. It is only flagged as complete if it was not cancelled.
+     * Surface modelers do not support it, since they cannot enumerate.
+     * @param polypeptide
+     * @param token
+     * @return
+     */
+    public GroundStates foldGroundStates(Polypeptide polypeptide, CancellationToken token) {
+        FoldResult best = fold(polypeptide, token);
+        GroundStateCollector collector = new GroundStateCollector(best.lattice.getEnergy());
+        collector.offer(toFolding(best.lattice));
+        boolean complete = !token.isCancelled() && enumerate(polypeptide, collector, token);
+        return collector.getResult(complete);
+    }
+
+    /**
+     * Offers every complete folding whose energy is at most the collector's threshold to the
+     * collector, each exactly once, pruning every folding whose bound is over the threshold.
+     * Foldings that are the same up to the symmetries broken by initializeHeap and
+     * isSymmetricallyUnique only come up once. The search runs in parallel, one worker per
+     * processor, on the seeds of the usual initial heap.
+     *
+     * Like foldWidening, it keeps the foldings the perimeter bound drops, and widens the bound
+     * until none of them are within the threshold, so it covers foldings of any perimeter.
+     * Surface modelers do not support it, since they drop foldings by height instead.
+     * Returns true if it finished without being cancelled.
+     * @param polypeptide
+     * @param collector
+     * @param token
+     * @return
+     */
+    public boolean enumerate(Polypeptide polypeptide, FoldingCollector collector, CancellationToken token) {
+        this.token = token;
+        int size = polypeptide.size();
+        int slack = getSurfaceSlack();
+        List<Folding> resume = null;
+        try {
+            for (int s = slack; !token.isCancelled(); s++) {
+                FoldingCollector passCollector = collector;
+                if (s > slack) {
+                    // the last pass already offered everything that fits its bound, and a pass that
+                    // starts over would offer it all again
+                    setSurfaceSlack(s - 1);
+                    passCollector = new WiderCollector(collector, size, getSurfaceBound(polypeptide));
+                }
+                setSurfaceSlack(s);
+                PerimeterFrontier frontier = new PerimeterFrontier(WIDENING_CAPACITY, collector.getThreshold());
+                perimeterFrontier = frontier;
+                try {
+                    PriorityBlockingQueue<Folding> initialHeap;
+                    if (resume == null) {
+                        initialHeap = initializeHeap(polypeptide);
+                    } else {
+                        initialHeap = new PriorityBlockingQueue<>(Math.max(1, resume.size()));
+                        for (Folding folding : resume) {
+                            if (folding.lattice.minBoundingPerimeter(size) > getSurfaceBound(polypeptide)) {
+                                frontier.add(folding);
+                            } else {
+                                initialHeap.add(folding);
+                            }
+                        }
+                    }
+                    enumerate(polypeptide, token, initialHeap, passCollector);
+                } finally {
+                    perimeterFrontier = null;
+                }
+                if (!token.isCancelled() && frontier.getMinBound() > collector.getThreshold()) {
+                    return true;
+                }
+                // getFoldingsBelow is strict, and the threshold itself is still worth searching
+                resume = frontier.isComplete() ? frontier.getFoldingsBelow(Math.nextUp(collector.getThreshold())) : null;
+            }
+        } finally {
+            setSurfaceSlack(slack);
+        }
+        return false;
+    }
+
+    /**
+     * Passes on only the foldings that do not fit in the perimeter bound of an earlier pass
+     */
+    private static class WiderCollector implements FoldingCollector {
+
+        private final FoldingCollector collector;
+        private final int size;
+        private final int surfaceBound;
+
+        private WiderCollector(FoldingCollector collector, int size, int surfaceBound) {
+            this.collector = collector;
+            this.size = size;
+            this.surfaceBound = surfaceBound;
+        }
+
+        @Override
+        public double getThreshold() {
+            return collector.getThreshold();
+        }
+
+        @Override
+        public void offer(Folding solution) {
+            if (solution.lattice.minBoundingPerimeter(size) > surfaceBound) {
+                collector.offer(solution);
+            }
+        }
+    }
+
+    /**
+     * Offers every complete folding reachable from the initial heap, whose bounds never
+     * get over the collector's threshold, to the collector.
+     * @param polypeptide
+     * @param token
+     * @param initialHeap
+     * @param collector
+     */
+    private void enumerate(Polypeptide polypeptide, CancellationToken token,
+                           PriorityBlockingQueue<Folding> initialHeap, FoldingCollector collector) {
+        getMetrics().reset();
         // iterate a few times to make the initial heap bigger
         int count = 0;
-        while (running.get() && count < getSeedCount(polypeptide)) {
+        while (!token.isCancelled() && !initialHeap.isEmpty() && count < getSeedCount(polypeptide)
+                && initialHeap.peek().energyBound <= collector.getThreshold()) {
             Folding solution = iterate(polypeptide, initialHeap);
             if (solution != null) {
-                return solution.lattice;
+                collector.offer(solution);
             }
             count++;
         }
-
+        SeedQueue seeds = new SeedQueue(initialHeap);
+        getMetrics().setSeedQueue(seeds);
         int processors = Runtime.getRuntime().availableProcessors();
-        threads = new PeptideThread[processors];
-        PriorityBlockingQueue<Folding> solutions = new PriorityBlockingQueue<>(initialHeap.size());
-
-        System.out.println("Processors: " + processors);
-        System.out.println("Initial Heap Size: " + initialHeap.size());
-        for (int i=0; i< processors; i++) {
-            threads[i] = new PeptideThread(this, polypeptide, initialHeap, solutions, MAX_HEAP_SIZE / processors - 1);
-            if (running.get()) {
-                threads[i].start();
-            }
+        Thread[] threads = new Thread[processors];
+        EnumerationSearch[] searches = new EnumerationSearch[processors];
+        for (int i=0; i<processors; i++) {
+            searches[i] = new EnumerationSearch(this, polypeptide, seeds, collector, token);
+            threads[i] = new Thread(searches[i]);
+            threads[i].start();
         }
-        for (int i=0; i< processors; i++) {
+        for (int i=0; i<processors; i++) {
             try {
                 threads[i].join();
-                count += threads[i].getCount();
+                count += searches[i].getCount();
             } catch (InterruptedException e) {
                 throw new RuntimeException(e);
             }
         }
         System.out.println("States Visited: " + count);
-        if (running.get()) {
-            return solutions.poll().lattice;
+    }
+
+    /**
+     * Wraps a complete folding, so that it can be used to prune a search
+     * @param lattice
+     * @return
+     */
+    private static Folding toFolding(CheckedLattice lattice) {
+        Point last = null;
+        for (Point point : lattice.points()) {
+            if (lattice.get(point).index == lattice.size() - 1) {
+                last = point;
+            }
+        }
+        return new Folding(lattice, last, lattice.size() - 1, lattice.getEnergy());
+    }
+
+    /**
+     * Searches from the initial heap, pruning against the incumbent if it is not null
+     * @param polypeptide
+     * @param token
+     * @param initialHeap
+     * @param incumbent
+     * @return
+     */
+    private FoldResult fold(Polypeptide polypeptide, CancellationToken token,
+                            PriorityBlockingQueue<Folding> initialHeap, Folding incumbent) {
+        this.token = token;
+        getMetrics().reset();
+        getMetrics().setPerimeter(getSurfaceSlack(), perimeterFrontier);
+        // which thread gets to a shared state first depends on timing
+        boolean useTable = transpositionTableSize > 0 && deterministicPartitions == 0;
+        if (useTable) {
+            transpositions = new TranspositionTable(transpositionTableSize);
+        }
+        try {
+            return parallelFold(polypeptide, token, initialHeap, incumbent);
+        } finally {
+            if (useTable) {
+                transpositions = null;
+            }
+        }
+    }
+
+    private FoldResult parallelFold(Polypeptide polypeptide, CancellationToken token,
+                                    PriorityBlockingQueue<Folding> initialHeap, Folding incumbent) {
+        getMetrics().setSeedQueue(initialHeap);
+        boolean deterministic = deterministicPartitions > 0;
+        int processors = deterministic ? deterministicPartitions : Runtime.getRuntime().availableProcessors();
+        boolean adaptive = adaptiveSeeding && !isWidening();
+
+        // iterate a few times to make the initial heap bigger
+        int seedCount = getSeedCount(polypeptide);
+        Folding solution = seedHeap(polypeptide, token, initialHeap, incumbent,
+                adaptive ? processors * SeedPartitioner.SEEDS_PER_THREAD : Integer.MAX_VALUE);
+        if (solution != null) {
+            return new FoldResult(solution.lattice, true);
+        }
+        if (adaptive && !token.isCancelled()) {
+            // the probes must not fill the table, or the threads would drop the states they saw
+            TranspositionTable table = transpositions;
+            transpositions = null;
+            try {
+                SeedPartitioner partitioner = new SeedPartitioner(this, polypeptide, processors, seedCount, token);
+                List<Folding> split = partitioner.partition(initialHeap, incumbent);
+                initialHeap.clear();
+                initialHeap.addAll(split);
+                // the dive already found a real folding, so the threads can prune against it
+                incumbent = partitioner.getGreedy();
+            } finally {
+                transpositions = table;
+            }
+        }
+        if (token.isCancelled()) {
+            List<Folding> partials = new ArrayList<>();
+            if (!initialHeap.isEmpty()) {
+                partials.add(initialHeap.peek());
+            }
+            // a warm start still beats anything the partials can give, but the stand-in from
+            // fold(polypeptide, token, energy) is not a folding of the energy it claims
+            boolean real = incumbent != null && incumbent.energyBound == incumbent.lattice.getEnergy();
+            return getBestSoFar(polypeptide, real ? incumbent : null, partials);
+        }
+
+        PeptideThread[] threads = new PeptideThread[processors];
+        // sorted once, so the threads claim seeds and check the incumbent without taking locks
+        SeedQueue seeds = new SeedQueue(initialHeap);
+        getMetrics().setSeedQueue(seeds);
+        Incumbent best = new Incumbent(incumbent);
+        perimeterIncumbent = best;
+
+        System.out.println("Processors: " + processors);
+        System.out.println("Initial Heap Size: " + seeds.size());
+        List<Incumbent> partitionIncumbents = new ArrayList<>();
+        if (deterministic) {
+            // deal the seeds out in order, and give every partition its own incumbent and budget
+            List<Folding> sorted = new ArrayList<>(seeds);
+            getMetrics().setFrontierBudget(MAX_HEAP_SIZE / processors * processors, 0);
+            for (int i=0; i< processors; i++) {
+                List<Folding> partition = new ArrayList<>(sorted.size() / processors + 1);
+                for (int j = i; j < sorted.size(); j += processors) {
+                    partition.add(sorted.get(j));
+                }
+                partitionIncumbents.add(new Incumbent(incumbent));
+                threads[i] = new PeptideThread(this, polypeptide, new SeedQueue(partition), partitionIncumbents.get(i),
+                        FrontierBudget.fixed(MAX_HEAP_SIZE / processors), token);
+            }
         } else {
-            return new CheckedLattice(getDimension());
+            // the threads share one budget sized from free memory, instead of a fixed split of MAX_HEAP_SIZE
+            FrontierBudget budget = FrontierBudget.fromMemory(getUnfoldedLattice(polypeptide));
+            getMetrics().setFrontierBudget(budget.getAvailable(), budget.getStateBytes());
+            for (int i=0; i< processors; i++) {
+                threads[i] = new PeptideThread(this, polypeptide, seeds, best, budget, token);
+            }
+        }
+        for (PeptideThread thread : threads) {
+            thread.start();
+        }
+        int count = 0;
+        boolean complete = true;
+        try {
+            for (int i=0; i< processors; i++) {
+                threads[i].join();
+                count += threads[i].getCount();
+                complete &= threads[i].isComplete();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            perimeterIncumbent = null;
+        }
+        long finishTime = System.nanoTime();
+        for (PeptideThread thread : threads) {
+            getMetrics().idleNanos.add(finishTime - thread.getFinishTime());
+        }
+        System.out.println("States Visited: " + count);
+        for (Incumbent partition : partitionIncumbents) {
+            if (partition.get() != null) {
+                best.offer(partition.get());
+            }
+        }
+        solution = best.get();
+        if (complete && solution != null) {
+            return new FoldResult(solution.lattice,
+                    getMetrics().getHeapOverflows() == 0 && getSearchStrategy().isAdmissible());
+        }
+        List<Folding> partials = new ArrayList<>();
+        for (PeptideThread thread : threads) {
+            if (thread.getBestPartial() != null) {
+                partials.add(thread.getBestPartial());
+            }
         }
+        return getBestSoFar(polypeptide, solution, partials);
     }
 }
@@ -0,0 +1,26 @@
+package com.ariweiland.biophysics.modeler;
+
+import com.ariweiland.biophysics.lattice.Folding;
+
+/**
+ * This class is a folding that has already been expanded once, but held back the
+ * children whose bounds were above its own. It goes back on the heap with the lowest
+ * bound it held back, and when it comes off again, the children with bounds between
+ * expandedBound and its new bound are generated from the bounds it remembers.
+ *
+ * @author Ari Weiland
+ */
+class PartialExpansion extends Folding {
+
+    /**
+     * The bound of every child, by direction, or NaN for children that were pruned
+     */
+    final double[] childBounds;
+    final double expandedBound;
+
+    PartialExpansion(Folding folding, double energyBound, double expandedBound, double[] childBounds) {
+        super(folding.lattice, folding.lastPoint, folding.index, energyBound);
+        this.expandedBound = expandedBound;
+        this.childBounds = childBounds;
+    }
+}
@@ -0,0 +1,175 @@
+package com.ariweiland.biophysics.modeler;
+
+import com.ariweiland.biophysics.lattice.Folding;
+import com.ariweiland.biophysics.peptide.Polypeptide;
+import com.ariweiland.biophysics.peptide.Residue;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class holds the exact optimal energies of every window of consecutive residues
+ * of a polypeptide. The window starting at index i covers residues i through i+k-1, or
+ * through the end of the polypeptide if that comes first, so every short suffix has
+ * its own entry as well.
+ *
+ * Each window is folded on its own with no perimeter bound, so its energy is a true lower
+ * bound on the energy of the contacts within that window in any folding of the polypeptide.
+ * The windows are folded in parallel, one single-threaded search per window.
+ *
+ * Energies only depend on the window sequence, the dimension and the interaction scheme,
+ * so they are cached on disk by window sequence in one file per dimension and scheme, and
+ * reused by every polypeptide that shares a window.
+ *
+ * @author Ari Weiland
+ */
+public class PatternDatabase {
+
+    private final int windowSize;
+    private final double[] energies;
+
+    public PatternDatabase(Polypeptide polypeptide, final int dimension, int windowSize, File cacheDirectory) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be at least 1");
+        }
+        this.windowSize = windowSize;
+        int size = polypeptide.size();
+        File cacheFile = null;
+        if (cacheDirectory != null) {
+            cacheFile = new File(cacheDirectory, "pdb-" + dimension + "D-"
+                    + Integer.toHexString(Arrays.hashCode(Residue.getInteractionScheme())) + ".txt");
+        }
+        Map<String, Double> cache = readCache(cacheFile);
+
+        // fold every window that is not cached yet
+        String[] keys = new String[size];
+        Map<String, Future<Double>> futures = new HashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            for (int i=0; i<size; i++) {
+                final Polypeptide window = new Polypeptide();
+                for (int j=i; j<size && j<i+windowSize; j++) {
+                    window.add(polypeptide.get(j).residue);
+                }
+                keys[i] = window.toString();
+                if (!cache.containsKey(keys[i]) && !futures.containsKey(keys[i])) {
+                    futures.put(keys[i], executor.submit(new Callable<Double>() {
+                        @Override
+                        public Double call() {
+                            return solve(window, dimension);
+                        }
+                    }));
+                }
+            }
+            Map<String, Double> computed = new HashMap<>();
+            for (Map.Entry<String, Future<Double>> e : futures.entrySet()) {
+                computed.put(e.getKey(), e.getValue().get());
+            }
+            cache.putAll(computed);
+            writeCache(cacheFile, computed);
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        energies = new double[size];
+        for (int i=0; i<size; i++) {
+            energies[i] = cache.get(keys[i]);
+        }
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Returns the index one past the last residue of the window starting at start.
+     * @param start
+     * @return
+     */
+    public int getWindowEnd(int start) {
+        return Math.min(start + windowSize, energies.length);
+    }
+
+    /**
+     * Returns the optimal energy of the window starting at start.
+     * @param start
+     * @return
+     */
+    public double getEnergy(int start) {
+        return energies[start];
+    }
+
+    /**
+     * Finds the optimal energy of a short polypeptide with a single-threaded best-first
+     * search. The perimeter bound is lifted, because it is a heuristic and the result has
+     * to be a true lower bound.
+     * @param window
+     * @param dimension
+     * @return
+     */
+    private static double solve(Polypeptide window, int dimension) {
+        CurrentParallelModeler modeler = new CurrentParallelModeler(dimension) {
+            @Override
+            protected int getSurfaceBound(Polypeptide polypeptide) {
+                return Integer.MAX_VALUE;
+            }
+        };
+        Queue<Folding> queue = new PriorityQueue<>(modeler.initializeHeap(window));
+        Folding solution = null;
+        while (solution == null) {
+            solution = modeler.iterate(window, queue);
+        }
+        return solution.lattice.getEnergy();
+    }
+
+    private static Map<String, Double> readCache(File cacheFile) {
+        Map<String, Double> cache = new HashMap<>();
+        if (cacheFile == null || !cacheFile.exists()) {
+            return cache;
+        }
+        BufferedReader br = null;
+        try {
+            br = new BufferedReader(new FileReader(cacheFile));
+            String line = br.readLine();
+            while (line != null) {
+                String[] parts = line.split("\t");
+                if (parts.length == 2) {
+                    cache.put(parts[0], Double.valueOf(parts[1]));
+                }
+                line = br.readLine();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (br != null) {
+                try {
+                    br.close();
+                } catch (IOException ignored) {}
+            }
+        }
+        return cache;
+    }
+
+    private static void writeCache(File cacheFile, Map<String, Double> computed) {
+        if (cacheFile == null || computed.isEmpty()) {
+            return;
+        }
+        cacheFile.getAbsoluteFile().getParentFile().mkdirs();
+        PrintWriter pw = null;
+        try {
+            pw = new PrintWriter(new FileWriter(cacheFile, true));
+            for (Map.Entry<String, Double> e : computed.entrySet()) {
+                pw.println(e.getKey() + "\t" + e.getValue());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (pw != null) {
+                pw.close();
+            }
+        }
+    }
+}
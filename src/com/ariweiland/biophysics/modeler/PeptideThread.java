@@ -1,75 +1,57 @@
 package com.ariweiland.biophysics.modeler;
 
-import com.ariweiland.biophysics.FixedHeap;
 import com.ariweiland.biophysics.lattice.Folding;
 import com.ariweiland.biophysics.peptide.Polypeptide;
 
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.Queue;
 
 /**
  * This thread implementation is used to parallelize Modeler's iterate method.
- * It builds its own heap starting with Foldings it pulls from the initialHeap,
- * and if it finds a solution, adds it to solutions and pulls a new seed from
- * the initialHeap to try.
+ * It runs a single SeedSearch, which builds its own heap starting with Foldings
+ * it pulls from the seeds, and if it finds a solution, offers it to the incumbent
+ * and pulls a new seed to try.
  * @author Ari Weiland
  */
 public class PeptideThread extends Thread {
 
-    private final Modeler modeler;
-    private final Polypeptide polypeptide;
-    private final PriorityBlockingQueue<Folding> initialHeap;
-    private final PriorityBlockingQueue<Folding> solutions;
-    private final FixedHeap<Folding> heap;
+    private final SeedSearch search;
 
-    private boolean running = true;
-    private int count = 0;
+    public PeptideThread(Modeler modeler, Polypeptide polypeptide, Queue<Folding> seeds,
+                         Incumbent incumbent, FrontierBudget budget, CancellationToken token) {
+        this(new SeedSearch(modeler, polypeptide, seeds, incumbent, budget, token));
+    }
 
-    public PeptideThread(Modeler modeler, Polypeptide polypeptide, PriorityBlockingQueue<Folding> initialHeap,
-                         PriorityBlockingQueue<Folding> solutions, int heapSize) {
-        this.modeler = modeler;
-        this.polypeptide = polypeptide;
-        this.initialHeap = initialHeap;
-        this.solutions = solutions;
-        this.heap = new FixedHeap<>(heapSize);
+    private PeptideThread(SeedSearch search) {
+        super(search);
+        this.search = search;
     }
 
     public int getCount() {
-        return count;
+        return search.getCount();
     }
 
-    public void terminate() {
-        running = false;
+    /**
+     * Returns the System.nanoTime at which this thread finished searching
+     * @return
+     */
+    public long getFinishTime() {
+        return search.getFinishTime();
     }
 
-    @Override
-    public void run() {
-        if (!initialHeap.isEmpty()) {
-            heap.add(initialHeap.poll());
-        }
-        while (running && !heap.isEmpty()) {
-            Folding state = modeler.iterate(polypeptide, heap);
-            if (state != null) { // found a solution
-                // don't bother with the solution if it isn't better than the current best
-                // this will help conserve memory for larger polypeptides
-                if (isWorthExploring(state)) {
-                    solutions.put(state);
-                }
-                heap.clear();
-            }
-            if (heap.isEmpty()) {
-                Folding next = initialHeap.poll();
-                if (next != null && isWorthExploring(next)) {
-                    heap.add(next);
-                }
-            }
-            count++;
-            if (count % 1000000 == 0) {
-                System.out.println(getName() + ": " + count/1000000 + "M states visited, " + heap.size() + " states in heap, " + initialHeap.size() + " states left in initial heap");
-            }
-        }
+    /**
+     * Returns true if this thread ran out of seeds worth exploring without being cancelled
+     * @return
+     */
+    public boolean isComplete() {
+        return search.isComplete();
     }
 
-    private boolean isWorthExploring(Folding next) {
-        return solutions.isEmpty() || next.compareTo(solutions.peek()) < 0;
+    /**
+     * Returns the most promising partial folding this thread still had
+     * when it stopped, or null if it had none
+     * @return
+     */
+    public Folding getBestPartial() {
+        return search.getBestPartial();
     }
 }
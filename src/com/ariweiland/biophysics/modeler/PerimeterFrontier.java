@@ -0,0 +1,94 @@
+package com.ariweiland.biophysics.modeler;
+
+import com.ariweiland.biophysics.lattice.Folding;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class collects the partial foldings that a fold drops because they no longer fit
+ * in the perimeter bound. The lowest energy bound among them caps the energy of every
+ * folding the bound left out, so a fold whose best folding is no worse than that is
+ * optimal without any bound at all. Otherwise, a fold with a wider bound can carry on
+ * from the dropped foldings instead of starting over.
+ *
+ * Foldings whose bound is over the cutoff could never lead to anything the caller wants,
+ * so they are not recorded at all, which keeps them from filling it up. It keeps at most a
+ * fixed number of the rest, but always tracks the lowest bound.
+ *
+ * @author Ari Weiland
+ */
+public class PerimeterFrontier {
+
+    private final int capacity;
+    private final double cutoff;
+    private final Queue<Folding> foldings = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong minBound = new AtomicLong(Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+    private volatile boolean overflowed = false;
+
+    public PerimeterFrontier(int capacity) {
+        this(capacity, Double.POSITIVE_INFINITY);
+    }
+
+    public PerimeterFrontier(int capacity, double cutoff) {
+        this.capacity = capacity;
+        this.cutoff = cutoff;
+    }
+
+    /**
+     * Records a dropped folding, unless its bound is over the cutoff
+     * @param folding
+     */
+    public void add(Folding folding) {
+        if (folding.energyBound > cutoff) {
+            return;
+        }
+        long current = minBound.get();
+        while (folding.energyBound < Double.longBitsToDouble(current)
+                && !minBound.compareAndSet(current, Double.doubleToLongBits(folding.energyBound))) {
+            current = minBound.get();
+        }
+        if (size.incrementAndGet() <= capacity) {
+            foldings.add(folding);
+        } else {
+            overflowed = true;
+        }
+    }
+
+    /**
+     * Returns the lowest energy bound of any dropped folding, or positive infinity if there are none
+     * @return
+     */
+    public double getMinBound() {
+        return Double.longBitsToDouble(minBound.get());
+    }
+
+    /**
+     * Returns true if every dropped folding was kept
+     * @return
+     */
+    public boolean isComplete() {
+        return !overflowed;
+    }
+
+    /**
+     * Returns the dropped foldings whose bound is below the specified energy,
+     * which are the only ones that could still lead to a better folding
+     * @param energy
+     * @return
+     */
+    public List<Folding> getFoldingsBelow(double energy) {
+        List<Folding> below = new ArrayList<>();
+        for (Folding folding : foldings) {
+            if (folding.energyBound < energy) {
+                below.add(folding);
+            }
+        }
+        return below;
+    }
+}
@@ -0,0 +1,352 @@
+package com.ariweiland.biophysics.modeler;
+
+import com.ariweiland.biophysics.Point;
+import com.ariweiland.biophysics.lattice.CheckedLattice;
+import com.ariweiland.biophysics.lattice.MovableLattice;
+import com.ariweiland.biophysics.lattice.PullMove;
+import com.ariweiland.biophysics.peptide.Polypeptide;
+import com.ariweiland.biophysics.peptide.Residue;
+
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class folds polypeptides that are too long for the exact modelers by replica
+ * exchange Monte Carlo. It is a heuristic, so the result is never proven optimal.
+ *
+ * Each replica is a folding that wanders by Metropolis moves at its own temperature, on
+ * its own thread. The temperatures are spaced geometrically, so the hot replicas cross
+ * energy barriers easily and the cold ones settle into deep minima. The moves are the
+ * pull and bond-rebridging moves of MovableLattice. Pull moves only drag the chain
+ * toward its first residue, so a replica also reverses its chain at random, as refinement
+ * does in FragmentModeler.
+ *
+ * Every so many moves, the replicas meet at a barrier and neighboring temperatures try to
+ * swap foldings, accepting with the usual replica exchange probability. Adjacent pairs
+ * alternate between even and odd, so every pair gets a chance. The best folding any
+ * replica has seen is kept, and returned once the step budget runs out or the token is
+ * cancelled.
+ *
+ * Pull moves are not surface-safe yet, so this only folds without a surface.
+ *
+ * @author Ari Weiland
+ */
+public class ReplicaExchangeModeler {
+
+    private final int dimension;
+    private int replicas = Math.max(8, Runtime.getRuntime().availableProcessors());
+    private double minTemperature = 0.25;
+    private double maxTemperature = 1.6;
+    private int movesPerExchange = 500;
+    private long exchanges = 20000;
+    private double pullRatio = 0.5;
+    private volatile CancellationToken token;
+
+    public ReplicaExchangeModeler(int dimension) {
+        if (dimension < 2 || dimension > 3) {
+            throw new IllegalArgumentException("Dimension of less than 2 or more than 3 does not make sense");
+        }
+        this.dimension = dimension;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Sets the number of replicas, each of which runs on its own thread.
+     * The default is the number of processors, but at least 8, since fewer temperatures
+     * are too far apart to swap often.
+     * @param replicas
+     */
+    public void setReplicas(int replicas) {
+        if (replicas < 1) {
+            throw new IllegalArgumentException("There must be at least one replica");
+        }
+        this.replicas = replicas;
+    }
+
+    /**
+     * Sets the temperatures, in units of energy, of the coldest and hottest replicas.
+     * The rest are spaced geometrically between them.
+     * @param minTemperature
+     * @param maxTemperature
+     */
+    public void setTemperatures(double minTemperature, double maxTemperature) {
+        if (minTemperature <= 0 || maxTemperature < minTemperature) {
+            throw new IllegalArgumentException("Temperatures must be positive, and the max no less than the min");
+        }
+        this.minTemperature = minTemperature;
+        this.maxTemperature = maxTemperature;
+    }
+
+    /**
+     * Sets how many moves each replica makes between exchanges, and how many exchanges
+     * a fold may make in all
+     * @param movesPerExchange
+     * @param exchanges
+     */
+    public void setSteps(int movesPerExchange, long exchanges) {
+        this.movesPerExchange = movesPerExchange;
+        this.exchanges = exchanges;
+    }
+
+    /**
+     * Sets the fraction of moves that are pull moves. The rest are bond-rebridging moves.
+     * @param pullRatio
+     */
+    public void setPullRatio(double pullRatio) {
+        this.pullRatio = pullRatio;
+    }
+
+    public void terminate() {
+        CancellationToken token = this.token;
+        if (token != null) {
+            token.cancel();
+        }
+    }
+
+    public CheckedLattice fold(Polypeptide polypeptide) {
+        return fold(polypeptide, new CancellationToken()).lattice;
+    }
+
+    /**
+     * Folds the polypeptide, giving up once the timeout has passed.
+     * @param polypeptide
+     * @param timeout
+     * @param unit
+     * @return
+     */
+    public FoldResult fold(Polypeptide polypeptide, long timeout, TimeUnit unit) {
+        return fold(polypeptide, new CancellationToken(timeout, unit));
+    }
+
+    /**
+     * Folds the polypeptide until the step budget runs out or the token is cancelled,
+     * and returns the lowest energy folding any replica found. All replicas start as
+     * a straight line.
+     * @param polypeptide
+     * @param token
+     * @return
+     */
+    public FoldResult fold(Polypeptide polypeptide, CancellationToken token) {
+        this.token = token;
+        int size = polypeptide.size();
+        MovableLattice line = new MovableLattice(dimension, size);
+        for (int i=0; i<size; i++) {
+            line.put(new Point(i, 0, 0), polypeptide.get(i));
+        }
+        if (size < 3) {
+            return new FoldResult(toCheckedLattice(line), true);
+        }
+
+        Exchange exchange = new Exchange(line);
+        CyclicBarrier barrier = new CyclicBarrier(replicas, exchange);
+        Thread[] threads = new Thread[replicas];
+        for (int k=0; k<replicas; k++) {
+            threads[k] = new Thread(new ReplicaThread(k, exchange, barrier, token));
+            threads[k].start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        System.out.println("Exchanges: " + exchange.count);
+        StringBuilder rates = new StringBuilder();
+        for (int k=0; k<replicas-1; k++) {
+            rates.append(String.format(" %.2f", exchange.getAcceptance(k)));
+        }
+        System.out.println("Swap Acceptance:" + rates);
+        return new FoldResult(toCheckedLattice(exchange.best), false);
+    }
+
+    /**
+     * Returns the temperature of the replica at the index, from coldest to hottest
+     * @param k
+     * @return
+     */
+    private double getTemperature(int k) {
+        if (replicas == 1) {
+            return minTemperature;
+        }
+        return minTemperature * Math.pow(maxTemperature / minTemperature, (double) k / (replicas - 1));
+    }
+
+    /**
+     * Rebuilds the lattice as a CheckedLattice, so that its energy is counted from scratch
+     * @param lattice
+     * @return
+     */
+    private CheckedLattice toCheckedLattice(MovableLattice lattice) {
+        Point[] points = FragmentModeler.getPoints(lattice);
+        CheckedLattice checked = new CheckedLattice(dimension, points.length);
+        for (Point point : points) {
+            checked.put(point, lattice.get(point));
+        }
+        return checked;
+    }
+
+    /**
+     * A folding in the middle of its walk. The lattice may be numbered from the other end
+     * of the chain, in which case reversed is true.
+     */
+    private static class Replica {
+
+        private MovableLattice lattice;
+        private boolean reversed;
+
+        private Replica(MovableLattice lattice) {
+            this.lattice = lattice;
+        }
+
+        /**
+         * Returns a copy of the lattice numbered from the first residue
+         * @return
+         */
+        private MovableLattice copy() {
+            return reversed ? FragmentModeler.reverse(lattice) : new MovableLattice(lattice);
+        }
+    }
+
+    /**
+     * Holds the replica at each temperature and the best folding so far. It runs as the
+     * barrier action, so it only ever runs while every replica thread waits at the barrier,
+     * and the barrier publishes what it changes to all of them.
+     */
+    private class Exchange implements Runnable {
+
+        private final Replica[] slots = new Replica[replicas];
+        private final MovableLattice[] slotBests = new MovableLattice[replicas];
+        private final long[] attempts = new long[replicas];
+        private final long[] accepted = new long[replicas];
+        private MovableLattice best;
+        private long count = 0;
+        private boolean finished = false;
+
+        private Exchange(MovableLattice start) {
+            for (int k=0; k<replicas; k++) {
+                slots[k] = new Replica(new MovableLattice(start));
+            }
+            best = start;
+        }
+
+        @Override
+        public void run() {
+            for (MovableLattice lattice : slotBests) {
+                if (lattice != null && lattice.getEnergy() < best.getEnergy()) {
+                    best = lattice;
+                }
+            }
+            // alternate between the even and the odd pairs of neighbors
+            for (int k = (int) (count % 2); k + 1 < replicas; k += 2) {
+                double delta = (1 / getTemperature(k) - 1 / getTemperature(k + 1))
+                        * (slots[k].lattice.getEnergy() - slots[k + 1].lattice.getEnergy());
+                attempts[k]++;
+                if (delta >= 0 || ThreadLocalRandom.current().nextDouble() < Math.exp(delta)) {
+                    Replica cold = slots[k];
+                    slots[k] = slots[k + 1];
+                    slots[k + 1] = cold;
+                    accepted[k]++;
+                }
+            }
+            count++;
+            finished = count >= exchanges || token.isCancelled();
+        }
+
+        private double getAcceptance(int k) {
+            return attempts[k] == 0 ? 0 : (double) accepted[k] / attempts[k];
+        }
+    }
+
+    /**
+     * Walks whichever replica is at its temperature between exchanges, and records
+     * the best folding it sees for the exchange to pick up.
+     */
+    private class ReplicaThread implements Runnable {
+
+        private final int slot;
+        private final double temperature;
+        private final Exchange exchange;
+        private final CyclicBarrier barrier;
+        private final CancellationToken token;
+
+        private ReplicaThread(int slot, Exchange exchange, CyclicBarrier barrier, CancellationToken token) {
+            this.slot = slot;
+            this.temperature = getTemperature(slot);
+            this.exchange = exchange;
+            this.barrier = barrier;
+            this.token = token;
+        }
+
+        @Override
+        public void run() {
+            try {
+                do {
+                    walk(exchange.slots[slot]);
+                    barrier.await();
+                } while (!exchange.finished);
+            } catch (InterruptedException | BrokenBarrierException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private void walk(Replica replica) {
+            // every replica draws all the time, so they must not share Math.random
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int size = replica.lattice.size();
+            double bestEnergy = exchange.best.getEnergy();
+            for (int i=0; i<movesPerExchange && !token.isCancelled(); i++) {
+                MovableLattice trial = new MovableLattice(replica.lattice);
+                boolean moved;
+                if (random.nextDouble() < pullRatio) {
+                    List<PullMove> moves = trial.getPullMoves();
+                    moved = !moves.isEmpty();
+                    if (moved) {
+                        trial.pull(moves.get(random.nextInt(moves.size())));
+                    }
+                } else {
+                    moved = trial.rebridge(random.nextInt(size));
+                }
+                if (moved) {
+                    double delta = trial.getEnergy() - replica.lattice.getEnergy();
+                    if (delta <= 0 || random.nextDouble() < Math.exp(-delta / temperature)) {
+                        replica.lattice = trial;
+                        if (trial.getEnergy() < bestEnergy) {
+                            bestEnergy = trial.getEnergy();
+                            exchange.slotBests[slot] = replica.copy();
+                        }
+                    }
+                }
+                if (random.nextBoolean()) {
+                    replica.lattice = FragmentModeler.reverse(replica.lattice);
+                    replica.reversed = !replica.reversed;
+                }
+            }
+        }
+    }
+
+    /**
+     * Folds a random HP sequence for the specified number of seconds.
+     * Arguments: dimension length seconds
+     * @param args
+     */
+    public static void main(String[] args) {
+        int dimension = Integer.parseInt(args[0]);
+        int length = Integer.parseInt(args[1]);
+        long seconds = Long.parseLong(args[2]);
+        Residue.setInteractionScheme(-1, 0, 0);
+        Polypeptide polypeptide = Polypeptide.random(length, 0.5);
+        System.out.println(polypeptide);
+        ReplicaExchangeModeler modeler = new ReplicaExchangeModeler(dimension);
+        modeler.setSteps(500, Long.MAX_VALUE);
+        FoldResult result = modeler.fold(polypeptide, seconds, TimeUnit.SECONDS);
+        System.out.println(result);
+        result.lattice.visualize();
+    }
+}
@@ -0,0 +1,153 @@
+package com.ariweiland.biophysics.modeler;
+
+import com.ariweiland.biophysics.peptide.Peptide;
+import com.ariweiland.biophysics.peptide.Polypeptide;
+import com.ariweiland.biophysics.peptide.Residue;
+
+/**
+ * This class holds everything iterate needs that only depends on the polypeptide, the
+ * modeler's settings and the interaction scheme, worked out once when a fold starts
+ * instead of once per child. Interactions are looked up by residue index, so the
+ * innermost loop never goes through the Residue if-chains.
+ *
+ * A context never changes. Modeler.getSearchContext builds a new one whenever the
+ * polypeptide, the surface slack or the interaction scheme changes.
+ *
+ * @author Ari Weiland
+ */
+public class SearchContext {
+
+    private final Polypeptide polypeptide;
+    private final int surfaceSlack;
+    private final int schemeVersion;
+
+    private final int size;
+    private final int surfaceBound;
+    private final int maxY;
+    private final Peptide[] peptides;
+    private final double[] interactions;
+    private final double[] waterInteractions;
+    private final double[] minAdjusts;
+    private final double[] surfaceInteractions;
+    private final double surfaceWaterInteraction;
+    private final double adjustedSurfaceMinInteraction;
+
+    /**
+     * @param polypeptide
+     * @param dimension
+     * @param surfaceSlack
+     * @param surfaceBound
+     * @param maxY the height residues must stay below, or Integer.MAX_VALUE without a surface
+     * @param surface the surface residue, or null without a surface
+     */
+    public SearchContext(Polypeptide polypeptide, int dimension, int surfaceSlack, int surfaceBound,
+                         int maxY, Residue surface) {
+        this.polypeptide = polypeptide;
+        this.surfaceSlack = surfaceSlack;
+        this.schemeVersion = Residue.getSchemeVersion();
+        this.size = polypeptide.size();
+        this.surfaceBound = surfaceBound;
+        this.maxY = maxY;
+        peptides = new Peptide[size];
+        interactions = new double[size * size];
+        waterInteractions = new double[size];
+        minAdjusts = new double[size];
+        surfaceInteractions = new double[size];
+        for (int i=0; i<size; i++) {
+            Peptide p = polypeptide.get(i);
+            peptides[i] = p;
+            for (int j=0; j<size; j++) {
+                interactions[i * size + j] = p.interaction(polypeptide.get(j).residue);
+            }
+            waterInteractions[i] = Math.min(p.interaction(Residue.H2O), 0);
+            minAdjusts[i] = (dimension - 1) * 2 * p.minInteraction();
+            surfaceInteractions[i] = surface == null ? 0 : p.interaction(surface);
+        }
+        surfaceWaterInteraction = surface == null ? 0 : Math.min(surface.interaction(Residue.H2O), 0);
+        adjustedSurfaceMinInteraction = surface == null ? 0 : surface.minInteraction() - surface.interaction(Residue.H2O);
+    }
+
+    /**
+     * Returns true if this context was built for the polypeptide with the current
+     * interaction scheme and the specified surface slack
+     * @param polypeptide
+     * @param surfaceSlack
+     * @return
+     */
+    public boolean isFor(Polypeptide polypeptide, int surfaceSlack) {
+        return this.polypeptide == polypeptide && this.surfaceSlack == surfaceSlack
+                && schemeVersion == Residue.getSchemeVersion();
+    }
+
+    public Polypeptide getPolypeptide() {
+        return polypeptide;
+    }
+
+    public int getSurfaceBound() {
+        return surfaceBound;
+    }
+
+    public int getMaxY() {
+        return maxY;
+    }
+
+    public Peptide getPeptide(int i) {
+        return peptides[i];
+    }
+
+    /**
+     * Returns the interaction between the residues at the two indices
+     * @param i
+     * @param j
+     * @return
+     */
+    public double getInteraction(int i, int j) {
+        return interactions[i * size + j];
+    }
+
+    /**
+     * Returns the favorable water interaction of the residue at the index,
+     * see Modeler.getFavorableWaterInteraction
+     * @param i
+     * @return
+     */
+    public double getWaterInteraction(int i) {
+        return waterInteractions[i];
+    }
+
+    /**
+     * Returns the min interaction of the residue at the index times the
+     * number of contacts an interior residue can make
+     * @param i
+     * @return
+     */
+    public double getMinAdjust(int i) {
+        return minAdjusts[i];
+    }
+
+    /**
+     * Returns the interaction of the residue at the index with the surface
+     * @param i
+     * @return
+     */
+    public double getSurfaceInteraction(int i) {
+        return surfaceInteractions[i];
+    }
+
+    /**
+     * Returns the favorable water interaction of the surface
+     * @return
+     */
+    public double getSurfaceWaterInteraction() {
+        return surfaceWaterInteraction;
+    }
+
+    /**
+     * Returns the min interaction of the surface, adjusted such that the
+     * water-surface interaction is treated as zero
+     * @return
+     */
+    public double getAdjustedSurfaceMinInteraction() {
+        return adjustedSurfaceMinInteraction;
+    }
+}
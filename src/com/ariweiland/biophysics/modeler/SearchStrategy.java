@@ -0,0 +1,135 @@
+package com.ariweiland.biophysics.modeler;
+
+import com.ariweiland.biophysics.lattice.CheckedLattice;
+import com.ariweiland.biophysics.lattice.Folding;
+
+import java.util.Comparator;
+
+/**
+ * This class decides which partial folding a search expands next. Every search pops
+ * foldings off its heap in the order of its strategy, and stops once the first complete
+ * folding comes off. Seeds are still handed out in order of their energy bounds, and
+ * foldings are still only pruned by their bounds, so a strategy only changes which
+ * folding the search works on next.
+ *
+ * Strategies that only break ties between equal bounds are admissible: the first complete
+ * folding to come off the heap is still optimal. Other strategies can find a folding
+ * sooner, but a fold that uses one is never flagged as optimal.
+ *
+ * @author Ari Weiland
+ */
+public abstract class SearchStrategy implements Comparator<Folding> {
+
+    /**
+     * Orders foldings by their natural order. See Folding.compareTo.
+     */
+    public static final SearchStrategy BEST_BOUND = new SearchStrategy("best-bound") {
+        @Override
+        public int compare(Folding a, Folding b) {
+            return a.compareTo(b);
+        }
+    };
+
+    /**
+     * Orders foldings by energy bound, then by index before surface size. The natural order
+     * already prefers deeper foldings once bound and surface size tie, so this only differs
+     * from BEST_BOUND in letting a deeper folding with a larger surface go first.
+     */
+    public static final SearchStrategy DEEPER_FIRST = new SearchStrategy("deeper-first") {
+        @Override
+        public int compare(Folding a, Folding b) {
+            int compare = Double.compare(a.energyBound, b.energyBound);
+            if (compare == 0) {
+                compare = Integer.compare(b.index, a.index);
+            }
+            if (compare == 0) {
+                compare = a.compareTo(b);
+            }
+            return compare;
+        }
+    };
+
+    private final String name;
+
+    protected SearchStrategy(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns a strategy that orders foldings by energy bound, and breaks ties between
+     * equal bounds in an order that looks random, but is the same for the same seed
+     * @param seed
+     * @return
+     */
+    public static SearchStrategy random(final long seed) {
+        return new SearchStrategy("random-" + seed) {
+            @Override
+            public int compare(Folding a, Folding b) {
+                int compare = Double.compare(a.energyBound, b.energyBound);
+                if (compare == 0) {
+                    compare = Long.compare(key(a), key(b));
+                }
+                if (compare == 0) {
+                    compare = a.compareTo(b);
+                }
+                return compare;
+            }
+
+            private long key(Folding folding) {
+                return CheckedLattice.mix(folding.lattice.getContentHash()
+                        ^ CheckedLattice.pointHash(folding.lastPoint) ^ seed);
+            }
+        };
+    }
+
+    /**
+     * Returns a strategy that trusts the part of a bound that is still to be earned less
+     * than the energy a folding already has. A folding with energy e and bound b is ordered
+     * by e + (b - e) / (1 + epsilon), which favors foldings that are further along.
+     *
+     * As long as no partial folding has a positive energy, the fold finds a folding
+     * with at most 1 / (1 + epsilon) of the optimal energy, so for example an epsilon
+     * of 0.25 guarantees at least 80% of the optimal energy.
+     * @param epsilon
+     * @return
+     */
+    public static SearchStrategy weighted(double epsilon) {
+        if (epsilon < 0) {
+            throw new IllegalArgumentException("Epsilon cannot be negative");
+        }
+        final double weight = 1 / (1 + epsilon);
+        return new SearchStrategy("weighted-" + epsilon) {
+            @Override
+            public int compare(Folding a, Folding b) {
+                int compare = Double.compare(priority(a), priority(b));
+                if (compare == 0) {
+                    compare = a.compareTo(b);
+                }
+                return compare;
+            }
+
+            @Override
+            public boolean isAdmissible() {
+                return weight == 1;
+            }
+
+            private double priority(Folding folding) {
+                double energy = folding.lattice.getEnergy();
+                return energy + (folding.energyBound - energy) * weight;
+            }
+        };
+    }
+
+    /**
+     * Returns true if the first complete folding this strategy pops off a heap is optimal
+     * @return
+     */
+    public boolean isAdmissible() {
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,201 @@
+package com.ariweiland.biophysics.modeler;
+
+import com.ariweiland.biophysics.lattice.Folding;
+import com.ariweiland.biophysics.peptide.Polypeptide;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class splits the seeds of a parallel fold until none of them holds much more than
+ * its share of the work, so that the threads finish at about the same time instead of
+ * waiting on one or two huge seeds at the end of the fold.
+ *
+ * The work under a seed is estimated with Knuth's estimator: follow a random path down
+ * from the seed, multiplying together how many children were worth following at each step.
+ * A child is worth following if its bound is below the cutoff, which is the energy of a
+ * quick greedy folding, since the real search never expands anything worse than that.
+ * The estimate is the average over a few such paths. Any seed estimated at more than its
+ * share is replaced by its children, which are estimated in turn, until every seed is
+ * small enough or there are as many seeds as allowed. Estimates and splits run in parallel.
+ *
+ * Random paths are seeded from the seeds themselves, so the same seeds always split
+ * the same way.
+ *
+ * @author Ari Weiland
+ */
+class SeedPartitioner {
+
+    // how many seeds per thread to start splitting from
+    static final int SEEDS_PER_THREAD = 16;
+    // aim for this many seeds of equal size per thread, so the queue can even out the rest
+    private static final int SHARES_PER_THREAD = 8;
+    private static final int PROBES = 8;
+
+    private final ParallelModeler modeler;
+    private final Polypeptide polypeptide;
+    private final int threads;
+    private final int maxSeeds;
+    private final CancellationToken token;
+    private Folding greedy;
+
+    SeedPartitioner(ParallelModeler modeler, Polypeptide polypeptide, int threads, int maxSeeds, CancellationToken token) {
+        this.modeler = modeler;
+        this.polypeptide = polypeptide;
+        this.threads = threads;
+        this.maxSeeds = maxSeeds;
+        this.token = token;
+    }
+
+    /**
+     * Returns seeds that cover exactly the same foldings as the specified ones,
+     * with the big ones split up. If incumbent is not null, it is used as the cutoff.
+     * @param seeds
+     * @param incumbent
+     * @return
+     */
+    List<Folding> partition(Collection<Folding> seeds, Folding incumbent) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            greedy = incumbent != null ? incumbent : modeler.dive(polypeptide, seeds);
+            double cutoff = greedy != null ? greedy.energyBound : Double.POSITIVE_INFINITY;
+            List<Folding> done = new ArrayList<>();
+            List<Folding> pending = new ArrayList<>(seeds);
+            List<Double> estimates = estimate(executor, pending, cutoff);
+            double total = 0;
+            double largest = 0;
+            for (double estimate : estimates) {
+                total += estimate;
+                largest = Math.max(largest, estimate);
+            }
+            double share = total / (threads * SHARES_PER_THREAD);
+            modeler.getMetrics().setEstimatedWork(Math.round(total), Math.round(largest));
+            while (!pending.isEmpty() && !token.isCancelled()) {
+                List<Folding> oversized = new ArrayList<>();
+                for (int i=0; i<pending.size(); i++) {
+                    Folding seed = pending.get(i);
+                    // a complete folding has nothing under it to split
+                    if (estimates.get(i) > share && seed.index < polypeptide.size() - 1
+                            && done.size() + pending.size() + oversized.size() < maxSeeds) {
+                        oversized.add(seed);
+                    } else {
+                        done.add(seed);
+                    }
+                }
+                modeler.getMetrics().seedsSplit.add(oversized.size());
+                pending = expand(executor, oversized);
+                estimates = estimate(executor, pending, cutoff);
+            }
+            done.addAll(pending);
+            return done;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Returns the complete folding whose energy the last partition used as its cutoff.
+     * That is the incumbent if there was one, otherwise the folding the greedy dive found,
+     * which the fold can start out with as its incumbent. It is null if the dive failed.
+     * @return
+     */
+    Folding getGreedy() {
+        return greedy;
+    }
+
+    private List<Double> estimate(ExecutorService executor, List<Folding> seeds, final double cutoff) {
+        List<Callable<Double>> tasks = new ArrayList<>();
+        for (final Folding seed : seeds) {
+            tasks.add(new Callable<Double>() {
+                @Override
+                public Double call() {
+                    return estimate(seed, cutoff);
+                }
+            });
+        }
+        List<Double> estimates = new ArrayList<>();
+        for (Future<Double> future : invokeAll(executor, tasks)) {
+            estimates.add(get(future));
+        }
+        return estimates;
+    }
+
+    /**
+     * Returns the Knuth estimate of how many foldings under the seed have a bound below
+     * the cutoff, averaged over a few random paths
+     * @param seed
+     * @param cutoff
+     * @return
+     */
+    private double estimate(Folding seed, double cutoff) {
+        Random random = new Random(seed.lattice.getContentHash());
+        double sum = 0;
+        for (int probe = 0; probe < PROBES && !token.isCancelled(); probe++) {
+            double width = 1;
+            double size = 1;
+            Folding folding = seed;
+            while (folding.index < polypeptide.size() - 1) {
+                List<Folding> worthwhile = new ArrayList<>();
+                for (Folding child : children(folding)) {
+                    if (child.energyBound < cutoff) {
+                        worthwhile.add(child);
+                    }
+                }
+                if (worthwhile.isEmpty()) {
+                    break;
+                }
+                width *= worthwhile.size();
+                size += width;
+                folding = worthwhile.get(random.nextInt(worthwhile.size()));
+            }
+            sum += size;
+        }
+        return sum / PROBES;
+    }
+
+    private List<Folding> expand(ExecutorService executor, List<Folding> seeds) {
+        List<Callable<List<Folding>>> tasks = new ArrayList<>();
+        for (final Folding seed : seeds) {
+            tasks.add(new Callable<List<Folding>>() {
+                @Override
+                public List<Folding> call() {
+                    return children(seed);
+                }
+            });
+        }
+        List<Folding> children = new ArrayList<>();
+        for (Future<List<Folding>> future : invokeAll(executor, tasks)) {
+            children.addAll(get(future));
+        }
+        return children;
+    }
+
+    /**
+     * Returns what the modeler puts on the heap when it expands the folding. That is usually
+     * its children, but may also be the folding itself if it only expands partially.
+     * @param folding
+     * @return
+     */
+    private List<Folding> children(Folding folding) {
+        Queue<Folding> queue = new ArrayDeque<>();
+        queue.add(folding);
+        modeler.iterate(polypeptide, queue);
+        return new ArrayList<>(queue);
+    }
+
+    private static <T> List<Future<T>> invokeAll(ExecutorService executor, List<Callable<T>> tasks) {
+        try {
+            return executor.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static <T> T get(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.ariweiland.biophysics.modeler;
+
+import com.ariweiland.biophysics.lattice.Folding;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class hands out the seeds of a parallel fold. The seeds are sorted once up front,
+ * and each poll claims the next one by bumping an atomic cursor, so workers that finish
+ * their seeds quickly never wait on a lock to get the next one. Seeds come out in the same
+ * order a PriorityQueue would give them, and no more can be added.
+ *
+ * @author Ari Weiland
+ */
+public class SeedQueue extends AbstractQueue<Folding> {
+
+    private final Folding[] seeds;
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    public SeedQueue(Collection<Folding> seeds) {
+        this.seeds = seeds.toArray(new Folding[seeds.size()]);
+        Arrays.sort(this.seeds);
+    }
+
+    @Override
+    public boolean offer(Folding folding) {
+        throw new UnsupportedOperationException("Seeds cannot be added once the queue is built");
+    }
+
+    @Override
+    public Folding poll() {
+        // once the cursor is past the end, there is no need to keep bumping it
+        if (cursor.get() >= seeds.length) {
+            return null;
+        }
+        int i = cursor.getAndIncrement();
+        return i < seeds.length ? seeds[i] : null;
+    }
+
+    @Override
+    public Folding peek() {
+        int i = cursor.get();
+        return i < seeds.length ? seeds[i] : null;
+    }
+
+    @Override
+    public int size() {
+        return Math.max(0, seeds.length - cursor.get());
+    }
+
+    @Override
+    public Iterator<Folding> iterator() {
+        return Arrays.asList(seeds).subList(seeds.length - size(), seeds.length).iterator();
+    }
+}
@@ -0,0 +1,151 @@
+package com.ariweiland.biophysics.modeler;
+
+import com.ariweiland.biophysics.FixedHeap;
+import com.ariweiland.biophysics.lattice.Folding;
+import com.ariweiland.biophysics.peptide.Polypeptide;
+
+import java.util.Queue;
+
+/**
+ * This runnable is one worker of a parallel fold. It builds its own heap starting
+ * with Foldings it pulls from the seeds, and if it finds a solution, offers it to
+ * the incumbent and pulls a new seed to try. It also drops a seed as soon as nothing
+ * left in its heap can beat the incumbent, which is what makes a warm started incumbent
+ * pay off. It stops once the seeds have nothing left that could beat the incumbent.
+ * The seeds are usually a SeedQueue, so neither pulling a seed nor checking it against
+ * the incumbent takes a lock.
+ *
+ * It can run on its own thread, as in PeptideThread, or as a task on a shared pool.
+ * It checks its CancellationToken every iteration, and stops as soon as it is cancelled.
+ *
+ * Its heap starts small, and grows with capacity taken from a FrontierBudget whenever it
+ * is about to fill up. All of that capacity goes back to the budget when the search ends.
+ * @author Ari Weiland
+ */
+public class SeedSearch implements Runnable {
+
+    private static final int SAMPLE_MASK = 63;
+    // after the budget refuses to grow the heap, wait this many iterations before asking again
+    private static final int GROWTH_BACKOFF = 4096;
+
+    private final Modeler modeler;
+    private final Polypeptide polypeptide;
+    private final Queue<Folding> seeds;
+    private final Incumbent incumbent;
+    private final FixedHeap<Folding> heap;
+    private final boolean admissible;
+
+    private final FrontierBudget budget;
+    private final CancellationToken token;
+    private final FoldMetrics metrics;
+
+    private int count = 0;
+    private long finishTime;
+    private volatile boolean complete = false;
+
+    public SeedSearch(Modeler modeler, Polypeptide polypeptide, Queue<Folding> seeds,
+                      Incumbent incumbent, FrontierBudget budget, CancellationToken token) {
+        this.modeler = modeler;
+        this.polypeptide = polypeptide;
+        this.seeds = seeds;
+        this.incumbent = incumbent;
+        this.heap = new FixedHeap<>(FrontierBudget.INITIAL_CAPACITY, modeler.getSearchStrategy());
+        this.admissible = modeler.getSearchStrategy().isAdmissible();
+        this.budget = budget;
+        this.token = token;
+        this.metrics = modeler.getMetrics();
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the System.nanoTime at which this search finished
+     * @return
+     */
+    public long getFinishTime() {
+        return finishTime;
+    }
+
+    /**
+     * Returns true if this search ran out of seeds worth exploring without being cancelled
+     * @return
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Returns the most promising partial folding this search still had
+     * when it stopped, or null if it had none
+     * @return
+     */
+    public Folding getBestPartial() {
+        return heap.peek();
+    }
+
+    @Override
+    public void run() {
+        Folding first = seeds.poll();
+        if (first != null) {
+            heap.add(first);
+            metrics.seedsTaken.increment();
+        }
+        // an iteration adds at most one child per direction
+        int headroom = 2 * modeler.getDimension();
+        int granted = 0;
+        int nextGrowth = 0;
+        while (!token.isCancelled() && !heap.isEmpty()) {
+            if (heap.size() + headroom > heap.capacity() && count >= nextGrowth) {
+                int extra = heap.capacity() + 1;
+                if (budget.acquire(extra)) {
+                    heap.grow(heap.capacity() + extra);
+                    granted += extra;
+                } else {
+                    nextGrowth = count + GROWTH_BACKOFF;
+                }
+            }
+            Folding state = null;
+            if (!incumbent.isBeatenBy(heap.peek())) {
+                if (admissible) {
+                    // the heap is in order of bound, so nothing left in it can beat the incumbent
+                    heap.clear();
+                } else {
+                    heap.poll();
+                }
+            } else if ((count & SAMPLE_MASK) == 0) {
+                // timing every call would cost about as much as a cheap iteration, so only sample
+                long start = System.nanoTime();
+                state = modeler.iterate(polypeptide, heap);
+                metrics.iterateNanos.record(System.nanoTime() - start);
+                metrics.heapSizes.record(heap.size());
+            } else {
+                state = modeler.iterate(polypeptide, heap);
+            }
+            if (state != null) { // found a solution
+                // don't bother with the solution if it isn't better than the current best
+                // this will help conserve memory for larger polypeptides
+                metrics.recordSolution(state.energyBound);
+                incumbent.offer(state);
+                heap.clear();
+            }
+            if (heap.isEmpty()) {
+                Folding next = seeds.poll();
+                if (next != null) {
+                    if (incumbent.isBeatenBy(next)) {
+                        heap.add(next);
+                        metrics.seedsTaken.increment();
+                    } else {
+                        metrics.seedsSkipped.increment();
+                    }
+                }
+            }
+            count++;
+        }
+        budget.release(granted);
+        complete = heap.isEmpty();
+        metrics.heapOverflows.add(heap.getOverflowCount());
+        finishTime = System.nanoTime();
+    }
+}
@@ -0,0 +1,101 @@
+package com.ariweiland.biophysics.modeler;
+
+import com.ariweiland.biophysics.peptide.Polypeptide;
+import com.ariweiland.biophysics.peptide.Residue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class folds the same polypeptides with several search strategies and totals up
+ * how each of them did: how many states were expanded before the best folding turned up,
+ * how many were expanded overall, how long it took, and how far its energies were from
+ * the best any strategy found. That way a strategy can be picked for a family of
+ * sequences from data instead of by guessing.
+ *
+ * @author Ari Weiland
+ */
+public class StrategyComparison {
+
+    private final int dimension;
+    private final Residue surface;
+
+    public StrategyComparison(int dimension) {
+        this(dimension, null);
+    }
+
+    public StrategyComparison(int dimension, Residue surface) {
+        this.dimension = dimension;
+        this.surface = surface;
+    }
+
+    protected ParallelModeler createModeler() {
+        return ParallelModeler.create(dimension, surface);
+    }
+
+    /**
+     * Folds every polypeptide with every strategy, and returns one line
+     * of totals per strategy, in the order the strategies were given
+     * @param polypeptides
+     * @param strategies
+     * @return
+     */
+    public List<String> compare(List<Polypeptide> polypeptides, SearchStrategy... strategies) {
+        double[][] energies = new double[strategies.length][polypeptides.size()];
+        long[] expansionsToBest = new long[strategies.length];
+        long[] expansions = new long[strategies.length];
+        long[] millis = new long[strategies.length];
+        for (int i=0; i<polypeptides.size(); i++) {
+            for (int s=0; s<strategies.length; s++) {
+                ParallelModeler modeler = createModeler();
+                modeler.setSearchStrategy(strategies[s]);
+                long start = System.currentTimeMillis();
+                energies[s][i] = modeler.fold(polypeptides.get(i)).getEnergy();
+                millis[s] += System.currentTimeMillis() - start;
+                expansionsToBest[s] += modeler.getMetrics().getExpansionsToBest();
+                expansions[s] += modeler.getMetrics().getStatesExpanded();
+            }
+        }
+        List<String> lines = new ArrayList<>();
+        for (int s=0; s<strategies.length; s++) {
+            // the energies are negative, so the ratio to the best is at most 1
+            double worst = 1;
+            int misses = 0;
+            for (int i=0; i<polypeptides.size(); i++) {
+                double best = 0;
+                for (double[] e : energies) {
+                    best = Math.min(best, e[i]);
+                }
+                if (energies[s][i] > best) {
+                    misses++;
+                    worst = Math.min(worst, energies[s][i] / best);
+                }
+            }
+            lines.add(String.format("%-16s expansionsToBest=%d expanded=%d time=%.2fs missedBest=%d worstRatio=%.3f",
+                    strategies[s], expansionsToBest[s], expansions[s], millis[s] / 1000.0, misses, worst));
+        }
+        return lines;
+    }
+
+    /**
+     * Compares the built in strategies on random HP sequences.
+     * Arguments: dimension length count
+     * @param args
+     */
+    public static void main(String[] args) {
+        int dimension = Integer.parseInt(args[0]);
+        int length = Integer.parseInt(args[1]);
+        int count = Integer.parseInt(args[2]);
+        Residue.setInteractionScheme(-1, 0, 0);
+        List<Polypeptide> polypeptides = new ArrayList<>();
+        for (int i=0; i<count; i++) {
+            polypeptides.add(Polypeptide.random(length, 0.5));
+        }
+        List<String> lines = new StrategyComparison(dimension).compare(polypeptides, SearchStrategy.BEST_BOUND,
+                SearchStrategy.DEEPER_FIRST, SearchStrategy.random(1), SearchStrategy.weighted(0.1),
+                SearchStrategy.weighted(0.25));
+        for (String line : lines) {
+            System.out.println(line);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.ariweiland.biophysics.modeler;
+
+import com.ariweiland.biophysics.ResultCache;
+import com.ariweiland.biophysics.lattice.CheckedLattice;
+import com.ariweiland.biophysics.peptide.Polypeptide;
+import com.ariweiland.biophysics.peptide.Residue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class folds a polypeptide and every single-site substitution of it, swapping one
+ * residue between H and P at a time. A substitution usually changes the optimum very
+ * little, so every substituted fold is warm started: the optimum of the original is
+ * threaded onto the substituted sequence, and the fold starts from that or from
+ * foldGreedy, whichever is better. Optimal foldings are read from and written to the
+ * cache, if there is one, so the original is only folded once across scans.
+ *
+ * @author Ari Weiland
+ */
+public class SubstitutionScan {
+
+    private final ParallelModeler modeler;
+    private final ResultCache cache;
+    private final Residue surface;
+
+    public SubstitutionScan(ParallelModeler modeler) {
+        this(modeler, null);
+    }
+
+    public SubstitutionScan(ParallelModeler modeler, ResultCache cache) {
+        this.modeler = modeler;
+        this.cache = cache;
+        this.surface = modeler instanceof SurfaceModeler ? ((SurfaceModeler) modeler).getSurface() : null;
+    }
+
+    /**
+     * Returns the polypeptide with the residue at the index swapped between H and P
+     * @param polypeptide
+     * @param index
+     * @return
+     */
+    public static Polypeptide substitute(Polypeptide polypeptide, int index) {
+        List<Residue> residues = new ArrayList<>();
+        for (int i=0; i<polypeptide.size(); i++) {
+            residues.add(polypeptide.get(i).residue);
+        }
+        residues.set(index, residues.get(index) == Residue.P ? Residue.H : Residue.P);
+        return new Polypeptide(residues);
+    }
+
+    /**
+     * Folds the original, then the substitution at every index in order, and returns the
+     * results in that order, the original first. If the token is cancelled, it returns the
+     * results it has so far.
+     * @param original
+     * @param token
+     * @return
+     */
+    public List<FoldResult> scan(Polypeptide original, CancellationToken token) {
+        List<FoldResult> results = new ArrayList<>();
+        FoldResult unsubstituted = fold(original, token, modeler.foldGreedy(original));
+        results.add(unsubstituted);
+        for (int i=0; i<original.size() && !token.isCancelled(); i++) {
+            Polypeptide polypeptide = substitute(original, i);
+            CheckedLattice start = modeler.thread(polypeptide, unsubstituted.lattice);
+            CheckedLattice greedy = modeler.foldGreedy(polypeptide);
+            if (greedy != null && greedy.getEnergy() < start.getEnergy()) {
+                start = greedy;
+            }
+            results.add(fold(polypeptide, token, start));
+        }
+        return results;
+    }
+
+    private FoldResult fold(Polypeptide polypeptide, CancellationToken token, CheckedLattice start) {
+        if (cache != null) {
+            CheckedLattice cached = cache.getFolding(polypeptide, modeler.getDimension(), surface);
+            if (cached != null) {
+                return new FoldResult(cached, true);
+            }
+        }
+        FoldResult result = modeler.fold(polypeptide, token, start);
+        // a stopped fold returns the best folding it found, which should not be cached
+        if (cache != null && result.optimal) {
+            cache.putFolding(polypeptide, modeler.getDimension(), surface, result.lattice);
+        }
+        return result;
+    }
+
+    /**
+     * Scans a sequence with and without warm starts, and prints the time each fold took.
+     * Arguments: dimension sequence
+     * @param args
+     */
+    public static void main(String[] args) {
+        int dimension = Integer.parseInt(args[0]);
+        Polypeptide original = new Polypeptide(args[1]);
+        Residue.setInteractionScheme(-1, 0, 0);
+        ParallelModeler modeler = new CurrentParallelModeler(dimension);
+        SubstitutionScan scan = new SubstitutionScan(modeler);
+        // cold first, so that the warm scan does not get the benefit of a warmed up JIT
+        long start = System.currentTimeMillis();
+        List<FoldResult> colds = new ArrayList<>();
+        for (int i=0; i<original.size(); i++) {
+            colds.add(modeler.fold(substitute(original, i), new CancellationToken()));
+        }
+        long cold = System.currentTimeMillis() - start;
+        start = System.currentTimeMillis();
+        List<FoldResult> results = scan.scan(original, new CancellationToken());
+        long warm = System.currentTimeMillis() - start;
+        for (int i=0; i<original.size(); i++) {
+            if (colds.get(i).lattice.getEnergy() != results.get(i + 1).lattice.getEnergy()) {
+                System.out.println("Position " + i + " differs: " + colds.get(i) + " cold, " + results.get(i + 1) + " warm");
+            }
+        }
+        System.out.println("Original: " + results.get(0));
+        for (int i=0; i<original.size(); i++) {
+            System.out.println("Position " + i + ": " + results.get(i + 1));
+        }
+        System.out.println("Cold substitutions: " + cold / 1000.0 + " s, warm scan with the original: " + warm / 1000.0 + " s");
+    }
+}
@@ -7,7 +7,10 @@ import com.ariweiland.biophysics.peptide.Peptide;
 import com.ariweiland.biophysics.peptide.Polypeptide;
 import com.ariweiland.biophysics.peptide.Residue;
 
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
 
 /**
  * @author Ari Weiland
@@ -49,47 +52,145 @@ public abstract class SurfaceModeler extends ParallelModeler {
         return super.getSeedCount(polypeptide) * 10;
     }
 
+    /**
+     * Seeds every folding whose first residues form a vertical line, rising or falling from
+     * the first residue, followed by one step along +x. Fixing that first step along +x
+     * removes the mirror images and, in 3D, the rotations about the y-axis, and the only
+     * other symmetry is handled by isSymmetricallyUnique. A line that holds every residue
+     * is seeded once per start and direction.
+     *
+     * Each line is built up one residue at a time and copied for each seed, and the lines
+     * for different starting heights are built in parallel.
+     * @param polypeptide
+     * @return
+     */
     @Override
-    protected PriorityBlockingQueue<Folding> initializeHeap(Polypeptide polypeptide) {
-        PriorityBlockingQueue<Folding> initialHeap = new PriorityBlockingQueue<>();
-        int size = polypeptide.size();
+    protected PriorityBlockingQueue<Folding> initializeHeap(final Polypeptide polypeptide) {
+        final PriorityBlockingQueue<Folding> initialHeap = new PriorityBlockingQueue<>();
         // use this so that we don't bother with the peptide floating far away from the surface
-        int maxY = getMaxY(polypeptide);
-        // fill the queue initially.  this avoids symmetrical solutions
-        for (int i = 1; i < maxY; i++) {
-            for (int j = 1; j < maxY; j++) {
-                CheckedLattice lattice = new CheckedLattice(getDimension(), size, surface);
-                double bound = getInitialEnergyBound(polypeptide);
-                int k;
-                // add some number of residues between 0 and all of them in a vertical line, either rising or falling
-                for (k = 0; k <= Math.abs(i - j) && k < size; k++) {
-                    Peptide next = polypeptide.get(k);
-                    int y;
-                    if (i > j) {
-                        y = i - k;
-                    } else {
-                        y = i + k;
+        final int maxY = getMaxY(polypeptide);
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 1; i < maxY; i++) {
+                final int start = i;
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        addSeeds(polypeptide, start, maxY, initialHeap);
                     }
-                    lattice.put(new Point(0, y), next);
-                    bound += getBoundAdjust(y, next);
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return initialHeap;
+    }
+
+    /**
+     * Adds the seeds whose first residue is at height start to the heap.
+     * @param polypeptide
+     * @param start
+     * @param maxY
+     * @param initialHeap
+     */
+    private void addSeeds(Polypeptide polypeptide, int start, int maxY, Queue<Folding> initialHeap) {
+        int size = polypeptide.size();
+        // falling, then rising. a line of one residue is the same either way, so only seed it once
+        int lastStep = size > 1 ? 1 : -1;
+        for (int step = -1; step <= lastStep; step += 2) {
+            CheckedLattice line = new CheckedLattice(getDimension(), size, surface);
+            Peptide first = polypeptide.get(0);
+            line.put(new Point(0, start), first);
+            double lineBound = getInitialEnergyBound(polypeptide) + getBoundAdjust(start, first);
+            int y = start;
+            while (true) {
+                int k = line.size();
+                if (k == size) {
+                    initialHeap.add(new Folding(line, new Point(0, y), k - 1, line.getEnergy()));
+                    break;
                 }
-                int lastX = 0;
-                // if there is at least one residue left, add it to the right of the last residue
-                if (k < size) {
+                if (step < 0 || k > 1) {
+                    // add the next residue to the right of the last residue
                     Peptide next = polypeptide.get(k);
-                    lastX = 1;
-                    lattice.put(new Point(lastX, j), next);
-                    bound += getBoundAdjust(j, next);
+                    CheckedLattice lattice = new CheckedLattice(line);
+                    lattice.put(new Point(1, y), next);
+                    double bound;
+                    if (k == size - 1) {
+                        // all residues have been placed, so use the actual lattice energy
+                        bound = lattice.getEnergy();
+                    } else {
+                        bound = lineBound + getBoundAdjust(y, next);
+                    }
+                    initialHeap.add(new Folding(lattice, new Point(1, y), k, bound));
                 }
-                // if all residues have been placed, replace the bound with the actual lattice energy
-                if (k >= size - 1) {
-                    bound = lattice.getEnergy();
+                if (y + step < 1 || y + step >= maxY) {
+                    break;
                 }
-                // add the lattice to the heap as a Folding
-                initialHeap.add(new Folding(lattice, new Point(lastX, j), k, bound));
+                y += step;
+                Peptide next = polypeptide.get(k);
+                line.put(new Point(0, y), next);
+                lineBound += getBoundAdjust(y, next);
             }
         }
-        return initialHeap;
+    }
+
+    /**
+     * Widening is not supported near a surface. The surface modelers bound the height with
+     * getMaxY instead of the perimeter bound, and the foldings that rise past it are never
+     * recorded, so nothing could show that a wider bound has nothing better.
+     * @param polypeptide
+     * @param token
+     * @return
+     */
+    @Override
+    public FoldResult foldWidening(Polypeptide polypeptide, CancellationToken token) {
+        throw new UnsupportedOperationException("Surface modelers cannot widen the perimeter bound");
+    }
+
+    /**
+     * Enumeration is not supported near a surface, for the same reason as foldWidening.
+     * The foldings that rise past getMaxY are never recorded, so it could not cover them.
+     * @param polypeptide
+     * @param collector
+     * @param token
+     * @return
+     */
+    @Override
+    public boolean enumerate(Polypeptide polypeptide, FoldingCollector collector, CancellationToken token) {
+        throw new UnsupportedOperationException("Surface modelers cannot enumerate foldings");
+    }
+
+    /**
+     * Ground states are not supported near a surface, since they need enumerate. This
+     * refuses before the first fold instead of after it.
+     * @param polypeptide
+     * @param token
+     * @return
+     */
+    @Override
+    public GroundStates foldGroundStates(Polypeptide polypeptide, CancellationToken token) {
+        throw new UnsupportedOperationException("Surface modelers cannot enumerate ground states");
+    }
+
+    @Override
+    protected CheckedLattice getUnfoldedLattice(Polypeptide polypeptide) {
+        CheckedLattice lattice = new CheckedLattice(getDimension(), polypeptide.size(), surface);
+        for (int i=0; i<polypeptide.size(); i++) {
+            lattice.put(new Point(i, 1, 0), polypeptide.get(i));
+        }
+        return lattice;
+    }
+
+    @Override
+    protected SearchContext createSearchContext(Polypeptide polypeptide) {
+        return new SearchContext(polypeptide, getDimension(), getSurfaceSlack(), getSurfaceBound(polypeptide),
+                getMaxY(polypeptide), surface);
     }
 
     /**
@@ -0,0 +1,96 @@
+package com.ariweiland.biophysics.modeler;
+
+import com.ariweiland.biophysics.lattice.CheckedLattice;
+import com.ariweiland.biophysics.lattice.Folding;
+
+/**
+ * This class remembers the best bound seen for every partial folding, so that a folding
+ * reached a second time (by a different walk, from a different seed or on a different
+ * thread) is only explored again if it has a better bound.
+ *
+ * Two foldings are the same state if they have the same residues at the same points, the
+ * same last point and the same index. Everything that can still happen to them is then
+ * identical, so the one with the worse bound can never lead to a better solution.
+ *
+ * The table is a fixed size, 2-way set-associative array, so it never grows. When both
+ * entries of a set are taken, the entry with the larger bound is replaced, because the
+ * best-first search is the least likely to ever come back to it. Sets are guarded by a
+ * fixed number of striped locks.
+ *
+ * @author Ari Weiland
+ */
+public class TranspositionTable {
+
+    private static final int STRIPES = 64;
+
+    private final long[] keys;
+    private final double[] bounds;
+    private final Object[] locks;
+    private final int setMask;
+
+    /**
+     * Creates a table with room for at least the specified number of entries,
+     * rounded up to a power of two.
+     * @param capacity
+     */
+    public TranspositionTable(int capacity) {
+        int sets = Integer.highestOneBit(Math.max(2, capacity) - 1);
+        this.keys = new long[sets * 2];
+        this.bounds = new double[sets * 2];
+        this.setMask = sets - 1;
+        this.locks = new Object[STRIPES];
+        for (int i=0; i<STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Returns the key of a folding, which combines the contents of its lattice
+     * with its last point and index. Never returns 0, which marks an empty entry.
+     * @param folding
+     * @return
+     */
+    public static long key(Folding folding) {
+        long h = folding.lattice.getContentHash();
+        h ^= CheckedLattice.mix(folding.index * 0x9E3779B97F4A7C15L
+                ^ CheckedLattice.pointHash(folding.lastPoint));
+        h = CheckedLattice.mix(h);
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * Records the folding if it is new or has a better bound than the last time
+     * it was seen, and returns true. Returns false if the folding has already been
+     * seen with a bound at least as good, in which case it should be dropped.
+     * @param folding
+     * @return
+     */
+    public boolean offer(Folding folding) {
+        long key = key(folding);
+        double bound = folding.energyBound;
+        int set = (int) (key ^ (key >>> 32)) & setMask;
+        int first = set * 2;
+        int second = first + 1;
+        synchronized (locks[set % STRIPES]) {
+            if (keys[first] == key || keys[second] == key) {
+                int slot = keys[first] == key ? first : second;
+                if (bounds[slot] <= bound) {
+                    return false;
+                }
+                bounds[slot] = bound;
+                return true;
+            }
+            int slot;
+            if (keys[first] == 0) {
+                slot = first;
+            } else if (keys[second] == 0) {
+                slot = second;
+            } else {
+                slot = bounds[first] >= bounds[second] ? first : second;
+            }
+            keys[slot] = key;
+            bounds[slot] = bound;
+            return true;
+        }
+    }
+}
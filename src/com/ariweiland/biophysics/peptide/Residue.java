@@ -76,16 +76,37 @@ public class Residue {
     private static double ppInt = 0;
     private static double shInt = 0;
     private static double spInt = 0;
+    private static volatile int schemeVersion = 0;
 
     public static void setInteractionScheme(double hh, double hp, double pp) {
         hhInt = hh;
         hpInt = hp;
         ppInt = pp;
+        schemeVersion++;
     }
 
     public static void setSurfaceInteractions(double sh, double sp) {
         shInt = sh;
         spInt = sp;
+        schemeVersion++;
+    }
+
+    /**
+     * Returns the current interaction scheme as {hh, hp, pp, sh, sp}.
+     * Anything derived from interaction energies depends on all of these.
+     * @return
+     */
+    public static double[] getInteractionScheme() {
+        return new double[]{hhInt, hpInt, ppInt, shInt, spInt};
+    }
+
+    /**
+     * Returns a number that changes every time the interaction scheme is set,
+     * so that anything cached from interaction energies can tell it is stale.
+     * @return
+     */
+    public static int getSchemeVersion() {
+        return schemeVersion;
     }
 
     public static double interaction(Residue r1, Residue r2) {
@@ -183,7 +183,7 @@ public class AdsorbingProgram extends ConsoleProgram {
         private final double surfaceEnergyIncrement;
         private final double maxSurfaceEnergy;
 
-        private boolean running = true;
+        private volatile boolean running = true;
 
         public MyThread(int dimension, Polypeptide polypeptide, double minSurfaceEnergy, double surfaceEnergyIncrement, double maxSurfaceEnergy) {
             this.dimension = dimension;
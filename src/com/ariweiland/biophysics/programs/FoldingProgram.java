@@ -1,10 +1,13 @@
 package com.ariweiland.biophysics.programs;
 
 import acm.program.ConsoleProgram;
+import com.ariweiland.biophysics.ResultCache;
 import com.ariweiland.biophysics.lattice.CheckedLattice;
+import com.ariweiland.biophysics.modeler.CancellationToken;
 import com.ariweiland.biophysics.modeler.CurrentParallelModeler;
 import com.ariweiland.biophysics.modeler.CurrentSurfaceModeler;
-import com.ariweiland.biophysics.modeler.Modeler;
+import com.ariweiland.biophysics.modeler.FoldResult;
+import com.ariweiland.biophysics.modeler.ParallelModeler;
 import com.ariweiland.biophysics.peptide.Polypeptide;
 import com.ariweiland.biophysics.peptide.Residue;
 
@@ -32,6 +35,7 @@ public class FoldingProgram extends ConsoleProgram {
     private final JButton stop = new JButton("Stop");
     private final JButton clear = new JButton("Clear");
 
+    private final ResultCache cache = new ResultCache();
     private GuiThread thread;
 
     @Override
@@ -79,13 +83,15 @@ public class FoldingProgram extends ConsoleProgram {
         } else if (source.equals(negative)) {
             surfaceType = Residue.NEG;
         } else if (source.equals(sequence) || source.equals(fold)) {
-            Modeler modeler;
+            ParallelModeler modeler;
+            Residue surfaceResidue = null;
             if (surface.isSelected()) {
+                surfaceResidue = surfaceType;
                 modeler = new CurrentSurfaceModeler(2, surfaceType);
             } else {
                 modeler = new CurrentParallelModeler(2);
             }
-            thread = new GuiThread(new Polypeptide(sequence.getText()), modeler);
+            thread = new GuiThread(new Polypeptide(sequence.getText()), modeler, surfaceResidue);
             thread.start();
         } else if (source.equals(stop)) {
             if (thread != null) {
@@ -99,11 +105,13 @@ public class FoldingProgram extends ConsoleProgram {
     private class GuiThread extends Thread {
 
         private final Polypeptide polypeptide;
-        private final Modeler modeler;
+        private final ParallelModeler modeler;
+        private final Residue surface;
 
-        private GuiThread(Polypeptide polypeptide, Modeler modeler) {
+        private GuiThread(Polypeptide polypeptide, ParallelModeler modeler, Residue surface) {
             this.polypeptide = polypeptide;
             this.modeler = modeler;
+            this.surface = surface;
         }
 
         public void terminate() {
@@ -122,7 +130,19 @@ public class FoldingProgram extends ConsoleProgram {
             println();
 
             long start = System.currentTimeMillis();
-            CheckedLattice lattice = modeler.fold(polypeptide);
+            CheckedLattice lattice = cache.getFolding(polypeptide, modeler.getDimension(), surface);
+            if (lattice == null) {
+                FoldResult result = modeler.fold(polypeptide, new CancellationToken());
+                lattice = result.lattice;
+                // a stopped fold returns the best folding it found, which should not be cached
+                if (result.optimal) {
+                    cache.putFolding(polypeptide, modeler.getDimension(), surface, lattice);
+                } else {
+                    println("Stopped early, showing the best folding found");
+                }
+            } else {
+                println("Loaded from cache");
+            }
             long elapsed = System.currentTimeMillis() - start;
 
             for (String line : lattice.visualize()) {
@@ -185,7 +185,7 @@ public class PreciseAdsorbingProgram extends ConsoleProgram {
         private final Polypeptide polypeptide;
         private final List<Double> surfaceEnergies;
 
-        private boolean running = true;
+        private volatile boolean running = true;
 
         public MyThread(int dimension, Polypeptide polypeptide, List<Double> surfaceEnergies) {
             this.dimension = dimension;
@@ -1,6 +1,7 @@
 package com.ariweiland.biophysics.programs;
 
 import acm.program.ConsoleProgram;
+import com.ariweiland.biophysics.ResultCache;
 import com.ariweiland.biophysics.peptide.Polypeptide;
 import com.ariweiland.biophysics.sampler.BruteForceSampler;
 import com.ariweiland.biophysics.sampler.DefaultWangLandauSampler;
@@ -36,6 +37,7 @@ public class SamplerProgram extends ConsoleProgram {
 
     private final JButton time = new JButton("Current Runtime");
 
+    private final ResultCache cache = new ResultCache();
     private long startTime = System.currentTimeMillis();
     private MyThread thread;
 
@@ -106,7 +108,7 @@ public class SamplerProgram extends ConsoleProgram {
         private final NaiveSampler ns = new NaiveSampler();
         private final WangLandauSampler wls = new DefaultWangLandauSampler();
 
-        private boolean running = true;
+        private volatile boolean running = true;
 
         public MyThread(int dimension, boolean repeat, String ratioString, String minString, String maxString) {
             this.dimension = dimension;
@@ -179,7 +181,17 @@ public class SamplerProgram extends ConsoleProgram {
 
                     println("Brute Force:");
                     long start = System.currentTimeMillis();
-                    Map<Double, Double> density = bfs.normalize(bfs.getDensity(dimension, polypeptide));
+                    // only the exact densities are cached, the sampled ones are meant to vary between runs
+                    String kind = bfs.getClass().getSimpleName();
+                    Map<Double, Double> density = cache.getDensity(kind, polypeptide, dimension, null);
+                    if (density == null) {
+                        density = bfs.getDensity(dimension, polypeptide);
+                        if (!running) {
+                            break;
+                        }
+                        cache.putDensity(kind, polypeptide, dimension, null, density);
+                    }
+                    density = bfs.normalize(density);
                     long elapsed = System.currentTimeMillis() - start;
                     println("Elapsed time: " + (elapsed / 1000.0) + " s");
                     println("Energy\tDensities");
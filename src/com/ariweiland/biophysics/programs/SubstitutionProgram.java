@@ -1,6 +1,7 @@
 package com.ariweiland.biophysics.programs;
 
 import acm.program.ConsoleProgram;
+import com.ariweiland.biophysics.ResultCache;
 import com.ariweiland.biophysics.peptide.Polypeptide;
 import com.ariweiland.biophysics.peptide.Residue;
 import com.ariweiland.biophysics.sampler.BruteForceSampler;
@@ -37,6 +38,7 @@ public class SubstitutionProgram extends ConsoleProgram {
 
     private final JTextField sequence = new JTextField("Sequence", 60);
 
+    private final ResultCache cache = new ResultCache();
     private long startTime = System.currentTimeMillis();
     private MyThread thread;
 
@@ -144,7 +146,7 @@ public class SubstitutionProgram extends ConsoleProgram {
         private final Polypeptide original;
         private final BruteForceSampler sampler = new BruteForceSampler();
 
-        private boolean running = true;
+        private volatile boolean running = true;
 
         public MyThread(int dimension, Polypeptide original) {
             this.dimension = dimension;
@@ -181,7 +183,10 @@ public class SubstitutionProgram extends ConsoleProgram {
                 }
                 println(polypeptide);
                 long start = System.currentTimeMillis();
-                Map<Double, Double> density = sampler.normalize(sampler.getDensity(dimension, polypeptide));
+                Map<Double, Double> density = getDensity(polypeptide);
+                if (density == null) {
+                    break;
+                }
                 long elapsed = System.currentTimeMillis() - start;
                 println("Elapsed time: " + (elapsed / 1000.0) + " s");
                 println("Bins\tCounts");
@@ -196,6 +201,25 @@ public class SubstitutionProgram extends ConsoleProgram {
             }
             terminate();
         }
+
+        /**
+         * Returns the normalized density of the polypeptide from the cache, or samples and
+         * caches it. Returns null if the sampler was terminated before it finished.
+         * @param polypeptide
+         * @return
+         */
+        private Map<Double, Double> getDensity(Polypeptide polypeptide) {
+            String kind = sampler.getClass().getSimpleName();
+            Map<Double, Double> density = cache.getDensity(kind, polypeptide, dimension, null);
+            if (density == null) {
+                density = sampler.getDensity(dimension, polypeptide);
+                if (!running) {
+                    return null;
+                }
+                cache.putDensity(kind, polypeptide, dimension, null, density);
+            }
+            return sampler.normalize(density);
+        }
     }
 
     public static void main(String[] args) {
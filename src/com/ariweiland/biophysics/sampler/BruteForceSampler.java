@@ -14,7 +14,7 @@ import java.util.Map;
  */
 public class BruteForceSampler extends Sampler {
 
-    private boolean running;
+    private volatile boolean running;
 
     @Override
     public void terminate() {
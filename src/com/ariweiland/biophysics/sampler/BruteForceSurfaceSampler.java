@@ -16,7 +16,7 @@ import java.util.Map;
 public class BruteForceSurfaceSampler extends Sampler {
 
     private final Residue surface;
-    private boolean running;
+    private volatile boolean running;
 
     public BruteForceSurfaceSampler(Residue surface) {
         this.surface = surface;
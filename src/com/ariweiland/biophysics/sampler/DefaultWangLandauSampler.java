@@ -16,7 +16,7 @@ public class DefaultWangLandauSampler extends WangLandauSampler {
 
     private int moveCount = 1;      // must be positive
     private double moveRatio = 0.2; // must be between 0 and 1 exclusive
-    private boolean running;
+    private volatile boolean running;
 
     public DefaultWangLandauSampler() {}
 
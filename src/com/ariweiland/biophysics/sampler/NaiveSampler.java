@@ -18,7 +18,7 @@ public class NaiveSampler extends Sampler {
 
     private int samples;
 
-    private boolean running;
+    private volatile boolean running;
     public NaiveSampler() {
         this(10000000);
     }
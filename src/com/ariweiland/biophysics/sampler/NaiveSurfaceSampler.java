@@ -19,7 +19,7 @@ public class NaiveSurfaceSampler extends Sampler {
 
     private final int samples;
     private final Residue surface;
-    private boolean running;
+    private volatile boolean running;
 
     public NaiveSurfaceSampler(int samples, Residue surface) {
         this.samples = samples;
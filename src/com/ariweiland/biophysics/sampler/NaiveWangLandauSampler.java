@@ -16,7 +16,7 @@ import java.util.Map;
  */
 public class NaiveWangLandauSampler extends WangLandauSampler {
 
-    private boolean running;
+    private volatile boolean running;
 
     public NaiveWangLandauSampler() {}
 
@@ -0,0 +1,84 @@
+package com.ariweiland.biophysics.sampler;
+
+import com.ariweiland.biophysics.lattice.Folding;
+import com.ariweiland.biophysics.modeler.CancellationToken;
+import com.ariweiland.biophysics.modeler.CurrentParallelModeler;
+import com.ariweiland.biophysics.modeler.FoldMetrics;
+import com.ariweiland.biophysics.modeler.FoldingCollector;
+import com.ariweiland.biophysics.peptide.Polypeptide;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This sampler counts the conformations in the low energy tail of the density of states
+ * exactly, namely every conformation within delta of the ground state energy. It counts
+ * the same conformations as BruteForceSampler does, but uses the bounds of the modeler
+ * to skip every partial folding that cannot end up in the tail, so it reaches chains
+ * far too long to enumerate completely.
+ *
+ * The modeler only finds one of each set of reflected conformations, so each one it
+ * finds is counted as many times as it has reflections. Energies above the tail are
+ * left out of the density entirely.
+ *
+ * @author Ari Weiland
+ */
+public class TailSampler extends Sampler {
+
+    private final double delta;
+    private volatile CancellationToken token;
+
+    public TailSampler(double delta) {
+        this.delta = delta;
+    }
+
+    public double getDelta() {
+        return delta;
+    }
+
+    @Override
+    public void terminate() {
+        CancellationToken token = this.token;
+        if (token != null) {
+            token.cancel();
+        }
+    }
+
+    @Override
+    public Map<Double, Double> getDensity(int dimension, Polypeptide polypeptide) {
+        CancellationToken token = new CancellationToken();
+        this.token = token;
+        final CurrentParallelModeler modeler = new CurrentParallelModeler(dimension);
+        final double maxEnergy = modeler.fold(polypeptide, token).lattice.getEnergy() + delta;
+        final ConcurrentMap<Double, FoldMetrics.Counter> counters = new ConcurrentHashMap<>();
+        modeler.enumerate(polypeptide, new FoldingCollector() {
+            @Override
+            public double getThreshold() {
+                return maxEnergy + FoldingCollector.TOLERANCE;
+            }
+
+            @Override
+            public void offer(Folding solution) {
+                double energy = solution.lattice.getEnergy();
+                if (energy <= maxEnergy + FoldingCollector.TOLERANCE) {
+                    FoldMetrics.Counter counter = counters.get(energy);
+                    if (counter == null) {
+                        counters.putIfAbsent(energy, new FoldMetrics.Counter());
+                        counter = counters.get(energy);
+                    }
+                    counter.add(modeler.getMultiplicity(solution.lattice));
+                }
+            }
+        }, token);
+        Map<Double, Double> density = new HashMap<>();
+        long count = 0;
+        for (Map.Entry<Double, FoldMetrics.Counter> entry : counters.entrySet()) {
+            density.put(entry.getKey(), (double) entry.getValue().sum());
+            count += entry.getValue().sum();
+        }
+        System.out.println(count + " tail states counted");
+        return density;
+    }
+}
@@ -18,7 +18,7 @@ public class WeilandNaiveSampler extends Sampler {
 
     private final int samples;
     private final double minChance;
-    private boolean running;
+    private volatile boolean running;
 
     public WeilandNaiveSampler(int samples, double minChance) {
         this.samples = samples;
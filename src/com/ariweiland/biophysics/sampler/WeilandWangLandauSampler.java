@@ -17,7 +17,7 @@ public class WeilandWangLandauSampler extends WangLandauSampler {
 
     private int moveCount = 1;      // must be positive
     private double moveRatio = 0.2; // must be between 0 and 1 exclusive
-    private boolean running;
+    private volatile boolean running;
 
     public WeilandWangLandauSampler() {
     }